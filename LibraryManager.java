@@ -1,7 +1,16 @@
 // ===== IMPORT STATEMENTS =====
 // Import required Java packages
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.*;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.stream.*;
+import java.util.zip.*;
 
 // ===== BOOK CLASS =====
 // This class represents a book with all its details
@@ -16,6 +25,14 @@ class Book implements Comparable<Book>, Serializable {
     private String category;
     // Boolean flag to check if book is currently issued
     private boolean isIssued;
+    // Collation sort keys, so sorting compares bytes instead of strings
+    // Built on first use by a sort (null until then); volatile so a key built by one
+    // thread of a parallel sort is seen complete by the others
+    private volatile byte[] titleKey;
+    private volatile byte[] authorKey;
+    private volatile byte[] categoryKey;
+    // Time (epoch millis) the book was last added, issued or returned
+    private long lastAccess;
     
     // Constructor to initialize book with details
     public Book(int bookId, String title, String author, String category) {
@@ -24,6 +41,7 @@ class Book implements Comparable<Book>, Serializable {
         this.author = author;           // Set author name
         this.category = category;       // Set category
         this.isIssued = false;          // Initially, book is not issued
+        this.lastAccess = System.currentTimeMillis(); // New books count as just used
     }
     
     // Getters - methods to retrieve book properties
@@ -47,6 +65,49 @@ class Book implements Comparable<Book>, Serializable {
         return isIssued; 
     }
     
+    // Sort key getters build the key the first time a sort needs it, so books
+    // that are only loaded, searched or saved never pay for collation
+    public byte[] getTitleKey() { 
+        byte[] key = titleKey;
+        if (key == null) {
+            key = SortKeys.keyFor(title);
+            titleKey = key;
+        }
+        return key; 
+    }
+    
+    public byte[] getAuthorKey() { 
+        byte[] key = authorKey;
+        if (key == null) {
+            key = SortKeys.keyFor(author);
+            authorKey = key;
+        }
+        return key; 
+    }
+    
+    public byte[] getCategoryKey() { 
+        byte[] key = categoryKey;
+        if (key == null) {
+            key = SortKeys.keyFor(category);
+            categoryKey = key;
+        }
+        return key; 
+    }
+    
+    public long getLastAccess() { 
+        return lastAccess; 
+    }
+    
+    // Setter - restore last access time when loading from file
+    public void setLastAccess(long lastAccess) {
+        this.lastAccess = lastAccess;
+    }
+    
+    // Method to record that the book was just used
+    public void touch() {
+        this.lastAccess = System.currentTimeMillis();
+    }
+    
     // Setter - method to mark book as issued
     public void markAsIssued() {
         this.isIssued = true;  // Set isIssued flag to true
@@ -68,8 +129,8 @@ class Book implements Comparable<Book>, Serializable {
         System.out.println("---");
     }
     
-    // Convert book object to string format for file storage
-    // Format: bookId|title|author|category|isIssued
+    // Convert book object to a one-line string
+    // Format: bookId|title|author|category|isIssued (files are written by RecordCodec)
     @Override
     public String toString() {
         return bookId + "|" + title + "|" + author + "|" + category + "|" + isIssued;
@@ -81,7 +142,7 @@ class Book implements Comparable<Book>, Serializable {
         // Return negative if this title comes before other
         // Return positive if this title comes after other
         // Return 0 if titles are equal
-        return this.title.compareTo(other.title);
+        return SortKeys.compare(this.getTitleKey(), other.getTitleKey());
     }
 }
 
@@ -96,6 +157,8 @@ class Member implements Serializable {
     private String email;
     // List to store IDs of books issued by this member
     private List<Integer> issuedBooks;
+    // Time (epoch millis) the member last joined, issued or returned a book
+    private long lastAccess;
     
     // Constructor to initialize member with details
     public Member(int memberId, String name, String email) {
@@ -103,6 +166,7 @@ class Member implements Serializable {
         this.name = name;                   // Set member name
         this.email = email;                 // Set email
         this.issuedBooks = new ArrayList<>(); // Initialize empty list for issued books
+        this.lastAccess = System.currentTimeMillis(); // New members count as just active
     }
     
     // Getters - methods to retrieve member properties
@@ -122,6 +186,20 @@ class Member implements Serializable {
         return issuedBooks; 
     }
     
+    public long getLastAccess() { 
+        return lastAccess; 
+    }
+    
+    // Setter - restore last access time when loading from file
+    public void setLastAccess(long lastAccess) {
+        this.lastAccess = lastAccess;
+    }
+    
+    // Method to record that the member was just active
+    public void touch() {
+        this.lastAccess = System.currentTimeMillis();
+    }
+    
     // Method to add a book ID to the issued books list
     public void addIssuedBook(int bookId) {
         // Add book ID to the list if not already present
@@ -152,8 +230,8 @@ class Member implements Serializable {
         System.out.println("---");
     }
     
-    // Convert member object to string format for file storage
-    // Format: memberId|name|email|bookIds(comma-separated)
+    // Convert member object to a one-line string
+    // Format: memberId|name|email|bookIds(comma-separated) (files are written by RecordCodec)
     @Override
     public String toString() {
         // Join book IDs with comma for storage
@@ -168,13 +246,368 @@ class Member implements Serializable {
     }
 }
 
+// ===== RECORD CODEC CLASS =====
+// This class converts books and members to and from the "|" separated file format.
+// Records are encoded into one reusable char buffer and decoded by scanning the line
+// in place, so numbers are parsed without creating substrings or split arrays.
+// Text fields are escaped: "\|" for "|", "\\" for "\" and "\n" for a line break.
+// The trailing lastAccess field is optional when reading, so older files still load.
+// Plain text files from before escaping existed must be read with setEscaped(false),
+// otherwise a literal "\" in them (for example "C:\new") would be taken as an escape.
+class RecordCodec {
+    // Field separator used in the file format
+    private static final char FIELD_SEPARATOR = '|';
+    // Separator between issued book IDs of a member
+    private static final char ID_SEPARATOR = ',';
+    // Escape character for separators inside text fields
+    private static final char ESCAPE = '\\';
+
+    // Reusable buffer that holds the record currently being encoded
+    private char[] out = new char[256];
+    // Number of characters used in the encode buffer
+    private int outLength;
+
+    // Reusable builder for unescaping text fields
+    private final StringBuilder text = new StringBuilder(64);
+    // Line currently being decoded
+    private String line;
+    // Read position inside the current line
+    private int pos;
+    // True if text fields being read use escapes (false for older plain text files)
+    private boolean escaped = true;
+
+    // ===== ENCODING =====
+    // Method to write one book as a line: bookId|title|author|category|isIssued|lastAccess
+    public void writeBook(Book book, Writer writer) throws IOException {
+        outLength = 0;
+        appendInt(book.getBookId());
+        append(FIELD_SEPARATOR);
+        appendEscaped(book.getTitle());
+        append(FIELD_SEPARATOR);
+        appendEscaped(book.getAuthor());
+        append(FIELD_SEPARATOR);
+        appendEscaped(book.getCategory());
+        append(FIELD_SEPARATOR);
+        appendBoolean(book.isIssued());
+        append(FIELD_SEPARATOR);
+        appendLong(book.getLastAccess());
+        append('\n');
+        // Write the whole record with a single call
+        writer.write(out, 0, outLength);
+    }
+
+    // Method to write one member as a line: memberId|name|email|bookIds(comma-separated)|lastAccess
+    public void writeMember(Member member, Writer writer) throws IOException {
+        outLength = 0;
+        appendInt(member.getMemberId());
+        append(FIELD_SEPARATOR);
+        appendEscaped(member.getName());
+        append(FIELD_SEPARATOR);
+        appendEscaped(member.getEmail());
+        append(FIELD_SEPARATOR);
+        List<Integer> issuedBooks = member.getIssuedBooks();
+        for (int i = 0; i < issuedBooks.size(); i++) {
+            if (i > 0) {
+                append(ID_SEPARATOR);
+            }
+            appendInt(issuedBooks.get(i));
+        }
+        append(FIELD_SEPARATOR);
+        appendLong(member.getLastAccess());
+        append('\n');
+        writer.write(out, 0, outLength);
+    }
+
+    // Method to write one recommendation record as a line: type|id|ids|values
+    // Both lists are comma-separated (used for the saved co-borrowing model)
+    public void writeIdLists(char type, int id, int[] ids, int idCount, int[] values, int valueCount,
+            Writer writer) throws IOException {
+        outLength = 0;
+        append(type);
+        append(FIELD_SEPARATOR);
+        appendInt(id);
+        append(FIELD_SEPARATOR);
+        appendIdList(ids, idCount);
+        append(FIELD_SEPARATOR);
+        appendIdList(values, valueCount);
+        append('\n');
+        writer.write(out, 0, outLength);
+    }
+
+    // Add the first count numbers of an array, separated by commas
+    private void appendIdList(int[] values, int count) {
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                append(ID_SEPARATOR);
+            }
+            appendInt(values[i]);
+        }
+    }
+
+    // Add one character to the encode buffer, growing it when full
+    private void append(char c) {
+        if (outLength == out.length) {
+            out = Arrays.copyOf(out, out.length * 2);
+        }
+        out[outLength++] = c;
+    }
+
+    // Add the decimal digits of an int without creating a String
+    private void appendInt(int value) {
+        appendLong(value);
+    }
+
+    // Add the decimal digits of a long without creating a String
+    private void appendLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            appendEscaped(Long.toString(value));
+            return;
+        }
+        if (value < 0) {
+            append('-');
+            value = -value;
+        }
+        // Find the highest power of ten not larger than the value
+        long divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        // Emit digits from most to least significant
+        while (divisor > 0) {
+            append((char) ('0' + (value / divisor) % 10));
+            divisor /= 10;
+        }
+    }
+
+    // Add "true" or "false"
+    private void appendBoolean(boolean value) {
+        if (value) {
+            append('t'); append('r'); append('u'); append('e');
+        } else {
+            append('f'); append('a'); append('l'); append('s'); append('e');
+        }
+    }
+
+    // Add a text field, escaping characters that would break the record
+    private void appendEscaped(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == FIELD_SEPARATOR || c == ESCAPE) {
+                append(ESCAPE);
+                append(c);
+            } else if (c == '\n') {
+                append(ESCAPE);
+                append('n');
+            } else if (c != '\r') {
+                append(c);
+            }
+        }
+    }
+
+    // ===== DECODING =====
+    // Method to choose whether text fields being read contain escapes
+    public void setEscaped(boolean escaped) {
+        this.escaped = escaped;
+    }
+
+    // Method to start decoding a new line
+    public void reset(String line) {
+        this.line = line;
+        this.pos = 0;
+    }
+
+    // Check if the current line has another field to read
+    public boolean hasMoreFields() {
+        return pos < line.length();
+    }
+
+    // Read an int field and move past the following separator
+    public int nextInt() {
+        int value = scanInt(FIELD_SEPARATOR);
+        pos++; // Skip the separator (or move past end of line)
+        return value;
+    }
+
+    // Read a long field and move past the following separator
+    public long nextLong() {
+        long value = scanLong(FIELD_SEPARATOR);
+        pos++;
+        return value;
+    }
+
+    // Read a boolean field ("true" ignoring case means true, like Boolean.parseBoolean)
+    public boolean nextBoolean() {
+        requireField();
+        int end = findFieldEnd();
+        boolean value = end - pos == 4 && line.regionMatches(true, pos, "true", 0, 4);
+        pos = end + 1;
+        return value;
+    }
+
+    // Read a text field, removing escape characters
+    public String nextText() {
+        requireField();
+        text.setLength(0);
+        while (pos < line.length()) {
+            char c = line.charAt(pos);
+            if (c == FIELD_SEPARATOR) {
+                break;
+            }
+            if (escaped && c == ESCAPE && pos + 1 < line.length()) {
+                char next = line.charAt(pos + 1);
+                if (next == FIELD_SEPARATOR || next == ESCAPE) {
+                    text.append(next);
+                    pos += 2;
+                    continue;
+                }
+                if (next == 'n') {
+                    text.append('\n');
+                    pos += 2;
+                    continue;
+                }
+            }
+            // Unknown escapes are kept as they are
+            text.append(c);
+            pos++;
+        }
+        pos++; // Skip the separator
+        return text.toString();
+    }
+
+    // Check if the comma-separated ID list in the current field has another ID
+    public boolean hasNextId() {
+        return pos < line.length() && line.charAt(pos) != FIELD_SEPARATOR;
+    }
+
+    // Read the next ID from a comma-separated ID list
+    public int nextId() {
+        int value = scanInt(ID_SEPARATOR);
+        // Skip the comma, but stay on a field separator so hasNextId() stops there
+        if (pos < line.length() && line.charAt(pos) == ID_SEPARATOR) {
+            pos++;
+        }
+        return value;
+    }
+
+    // Move past the end of the current field (used after reading an ID list)
+    public void endField() {
+        pos = findFieldEnd() + 1;
+    }
+
+    // Skip a malformed ID in a comma-separated ID list
+    public void skipId() {
+        while (pos < line.length() && line.charAt(pos) != ID_SEPARATOR && line.charAt(pos) != FIELD_SEPARATOR) {
+            pos++;
+        }
+        if (pos < line.length() && line.charAt(pos) == ID_SEPARATOR) {
+            pos++;
+        }
+    }
+
+    // Parse an int in place until the given separator or the end of the field
+    private int scanInt(char separator) {
+        int start = pos;
+        long value = scanLong(separator);
+        if (value > Integer.MAX_VALUE || value < Integer.MIN_VALUE) {
+            throw new NumberFormatException("Number out of range at position " + start);
+        }
+        return (int) value;
+    }
+
+    // Parse digits in place until the given separator or the end of the field
+    private long scanLong(char separator) {
+        requireField();
+        int start = pos;
+        boolean negative = false;
+        if (pos < line.length() && line.charAt(pos) == '-') {
+            negative = true;
+            pos++;
+        }
+        long value = 0;
+        int digits = 0;
+        while (pos < line.length()) {
+            char c = line.charAt(pos);
+            if (c == separator || c == FIELD_SEPARATOR) {
+                break;
+            }
+            if (c < '0' || c > '9') {
+                throw new NumberFormatException("Invalid number at position " + start);
+            }
+            // Stop before the value can overflow a long
+            if (value > (Long.MAX_VALUE - (c - '0')) / 10) {
+                throw new NumberFormatException("Number out of range at position " + start);
+            }
+            value = value * 10 + (c - '0');
+            digits++;
+            pos++;
+        }
+        if (digits == 0) {
+            throw new NumberFormatException("Missing number at position " + start);
+        }
+        return negative ? -value : value;
+    }
+
+    // Find the index of the next unescaped field separator (or end of line)
+    private int findFieldEnd() {
+        int end = pos;
+        while (end < line.length() && line.charAt(end) != FIELD_SEPARATOR) {
+            end++;
+        }
+        return end;
+    }
+
+    // Fail when a required field is missing, so callers can skip the record
+    private void requireField() {
+        if (pos > line.length()) {
+            throw new NumberFormatException("Missing field in record");
+        }
+    }
+}
+
+// ===== SORT KEY CLASS =====
+// This class builds locale-aware sort keys for book text fields.
+// A Collator orders case and accents the way readers expect ("apple" before "Zebra",
+// accented letters next to their base letters). Its keys become byte arrays once per book,
+// so each comparison during a sort is a plain unsigned byte comparison.
+// Collator instances are not thread-safe, so each thread gets its own copy instead of
+// all threads of a parallel sort waiting on one shared lock.
+class SortKeys {
+    // Collator for the configured locale (-Dlibrary.locale=fr-FR), default locale otherwise
+    private static final ThreadLocal<Collator> COLLATOR = ThreadLocal.withInitial(SortKeys::createCollator);
+
+    // Create the collator used for all sort keys
+    private static Collator createCollator() {
+        String tag = System.getProperty("library.locale");
+        Locale locale = (tag == null || tag.isEmpty()) ? Locale.getDefault() : Locale.forLanguageTag(tag);
+        Collator collator = Collator.getInstance(locale);
+        // Accents and case break ties after the base letters
+        collator.setStrength(Collator.TERTIARY);
+        return collator;
+    }
+
+    // Build the byte sort key for a text value
+    public static byte[] keyFor(String value) {
+        return COLLATOR.get().getCollationKey(value).toByteArray();
+    }
+
+    // Compare two strings directly with the collator (for small one-off orderings)
+    public static int compareText(String value1, String value2) {
+        return COLLATOR.get().compare(value1, value2);
+    }
+
+    // Compare two sort keys byte by byte (same order as comparing the CollationKeys)
+    public static int compare(byte[] key1, byte[] key2) {
+        return Arrays.compareUnsigned(key1, key2);
+    }
+}
+
 // ===== COMPARATOR CLASSES =====
 // Comparator to sort books by author name
 class BookAuthorComparator implements Comparator<Book> {
     @Override
     public int compare(Book b1, Book b2) {
-        // Compare authors alphabetically
-        return b1.getAuthor().compareTo(b2.getAuthor());
+        // Compare authors alphabetically using their precomputed sort keys
+        return SortKeys.compare(b1.getAuthorKey(), b2.getAuthorKey());
     }
 }
 
@@ -182,271 +615,2281 @@ class BookAuthorComparator implements Comparator<Book> {
 class BookCategoryComparator implements Comparator<Book> {
     @Override
     public int compare(Book b1, Book b2) {
-        // Compare categories alphabetically
-        return b1.getCategory().compareTo(b2.getCategory());
+        // Compare categories alphabetically using their precomputed sort keys
+        return SortKeys.compare(b1.getCategoryKey(), b2.getCategoryKey());
     }
 }
 
-// ===== LIBRARY MANAGER CLASS =====
-// This class manages all library operations
-public class LibraryManager {
-    // Map to store books with book ID as key
-    private Map<Integer, Book> books;
-    // Map to store members with member ID as key
-    private Map<Integer, Member> members;
-    // Counter to auto-generate unique book IDs
-    private int bookIdCounter;
-    // Counter to auto-generate unique member IDs
-    private int memberIdCounter;
-    // File path for storing books data
-    private static final String BOOKS_FILE = "books.txt";
-    // File path for storing members data
-    private static final String MEMBERS_FILE = "members.txt";
-    // Scanner for user input
-    private Scanner sc;
-    
-    // Constructor to initialize LibraryManager
-    public LibraryManager() {
-        // Initialize HashMap for books (provides fast lookup by ID)
-        this.books = new HashMap<>();
-        // Initialize HashMap for members
-        this.members = new HashMap<>();
-        // Initialize book ID counter starting from 101
-        this.bookIdCounter = 101;
-        // Initialize member ID counter starting from 1001
-        this.memberIdCounter = 1001;
-        // Create Scanner for reading user input
-        this.sc = new Scanner(System.in);
-        // Load existing data from files when program starts
-        loadFromFile();
+// ===== COLD STORE CLASS =====
+// This class keeps rarely used records in an append-only archive file.
+// The archive uses the same compressed, checksummed blocks as the data files; new
+// blocks are appended at the end. Only an index of record ID -> offset of the block
+// holding the record stays in memory, and a record is read back from its block when
+// it is needed. When a record is archived again, the newer copy replaces the older
+// one in the index. Copies that are no longer indexed are stale, and
+// compactIfNeeded() removes them.
+class ColdStore {
+    // Archive file (segment blocks of encoded records, one record per line)
+    private final File file;
+    // Plain text archive written by older versions (converted on first load)
+    private final File legacyFile;
+    // Record ID -> offset of the block holding its current copy
+    private final Map<Integer, Long> index;
+    // Number of records in the file (live and stale)
+    private int lineCount;
+    // False if the archive could not be read (nothing is then added to or removed from it)
+    private boolean readable;
+    // Damage found by the last load, and where the damaged file was copied
+    private LostRecordReport damage;
+    private File corruptCopy;
+
+    // Constructor to create a cold store for the given file
+    public ColdStore(String fileName, String legacyFileName) {
+        this.file = new File(fileName);
+        this.legacyFile = new File(legacyFileName);
+        this.index = new HashMap<>();
+        this.lineCount = 0;
     }
-    
-    // ===== FILE HANDLING - LOAD DATA =====
-    // Method to load books from file
-    private void loadBooksFromFile() {
-        try {
-            // Create a File object for books file
-            File file = new File(BOOKS_FILE);
-            // Check if file exists
-            if (!file.exists()) {
-                System.out.println("Books file not found. Starting with empty inventory.\n");
-                return; // Exit method if file doesn't exist
+
+    // Method to build the index by reading the file once
+    // IDs already held in memory (hot) win over archived copies
+    // Returns the highest ID found, or -1 if the archive is empty
+    public int load(final Set<Integer> hotIds) throws IOException {
+        index.clear();
+        lineCount = 0;
+        damage = null;
+        readable = false;
+        if (!file.exists() && legacyFile.exists()) {
+            convertLegacyFile();
+        }
+        if (!file.exists()) {
+            readable = true;
+            return -1;
+        }
+        final RecordCodec codec = new RecordCodec();
+        final int[] maxId = {-1};
+        final long[] blockOffset = {0};
+        LostRecordReport report = new LostRecordReport(new RecordVisitor() {
+            @Override
+            public void block(long offset) {
+                blockOffset[0] = offset;
             }
-            
-            // FileReader reads character-by-character from file
-            FileReader fr = new FileReader(file);
-            // BufferedReader wraps FileReader for faster reading
-            BufferedReader br = new BufferedReader(fr);
-            String line; // Variable to store each line read from file
-            
-            // Read each line from file until EOF (null)
-            while ((line = br.readLine()) != null) {
-                // Skip empty lines
-                if (line.trim().isEmpty()) {
-                    continue;
+
+            @Override
+            public void visit(String line) {
+                int id;
+                try {
+                    codec.reset(line);
+                    id = codec.nextInt();
+                } catch (NumberFormatException e) {
+                    return; // Not a record line
                 }
-                
-                // Split line by "|" delimiter to extract book details
-                String[] parts = line.split("\\|");
-                
-                // Validate that we have all required parts
-                if (parts.length < 5) {
-                    continue;
+                lineCount++;
+                if (!hotIds.contains(id)) {
+                    index.put(id, blockOffset[0]);
                 }
-                
+                maxId[0] = Math.max(maxId[0], id);
+            }
+        }, false);
+        File copy = SegmentReader.corruptCopyFor(file);
+        if (SegmentReader.read(file, copy, report) > 0) {
+            damage = report;
+            corruptCopy = copy;
+        }
+        readable = true;
+        return maxId[0];
+    }
+
+    // Method to rewrite an older plain text archive in the block format
+    // The newest line of each record wins, as it did in the text archive
+    private void convertLegacyFile() throws IOException {
+        final Map<Integer, String> lines = new LinkedHashMap<>();
+        final RecordCodec codec = new RecordCodec();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(legacyFile), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
                 try {
-                    // Extract book details from parts array
-                    int bookId = Integer.parseInt(parts[0]);      // Convert string to int
-                    String title = parts[1];                      // Title is at index 1
-                    String author = parts[2];                     // Author is at index 2
-                    String category = parts[3];                   // Category is at index 3
-                    boolean isIssued = Boolean.parseBoolean(parts[4]); // Convert string to boolean
-                    
-                    // Create new Book object with loaded data
-                    Book book = new Book(bookId, title, author, category);
-                    // If book was issued in file, mark it as issued
-                    if (isIssued) {
-                        book.markAsIssued();
-                    }
-                    
-                    // Store book in map using book ID as key
-                    books.put(bookId, book);
-                    // Update book ID counter to be higher than highest existing ID
-                    if (bookId >= bookIdCounter) {
-                        bookIdCounter = bookId + 1;
-                    }
+                    codec.reset(line);
+                    int id = codec.nextInt();
+                    lines.remove(id);
+                    lines.put(id, line);
                 } catch (NumberFormatException e) {
-                    // Skip lines with invalid data
-                    System.out.println("Skipping invalid book record: " + line);
+                    // Not a record line
+                }
+            }
+        }
+        try (SegmentWriter writer = new SegmentWriter(file)) {
+            for (String line : lines.values()) {
+                writer.write(line);
+                writer.write('\n');
+            }
+            writer.commit();
+        }
+        legacyFile.delete();
+    }
+
+    // Get the damage found by the last load, or null if the archive was intact
+    public LostRecordReport getDamage() {
+        return damage;
+    }
+
+    // Get the copy made of the damaged archive
+    public File getCorruptCopy() {
+        return corruptCopy;
+    }
+
+    // Get the archive file
+    public File getFile() {
+        return file;
+    }
+
+    // Method to drop index entries for IDs that are held in memory (their archived copies are stale)
+    public void forget(Set<Integer> ids) {
+        index.keySet().removeAll(ids);
+    }
+
+    // Get the number of records currently archived
+    public int size() {
+        return index.size();
+    }
+
+    // Check if a record ID is archived
+    public boolean contains(int id) {
+        return index.containsKey(id);
+    }
+
+    // Method to append encoded records, ID -> line (each line must end with a newline)
+    // The new blocks are synced to disk before the index changes, so callers may drop
+    // the records from memory once this returns. If writing fails, the file is cut back
+    // to its old length so no partial block is left behind.
+    public void appendAll(Map<Integer, String> records) throws IOException {
+        if (records.isEmpty()) {
+            return;
+        }
+        requireReadable();
+        Map<Integer, Long> offsets = new HashMap<>();
+        try (SegmentWriter writer = SegmentWriter.appendTo(file)) {
+            for (Map.Entry<Integer, String> record : records.entrySet()) {
+                offsets.put(record.getKey(), writer.nextBlockOffset());
+                writer.write(record.getValue());
+            }
+            // Make the records durable before anything relies on them being archived
+            writer.commit();
+        }
+        index.putAll(offsets);
+        lineCount += offsets.size();
+    }
+
+    // Method to read a record without changing the archive
+    // Returns the encoded line, or null if the record is not archived
+    public String read(int id) throws IOException {
+        Long offset = index.get(id);
+        if (offset == null) {
+            return null;
+        }
+        // Find the record's line in its block
+        final String prefix = id + "|";
+        final String[] found = {null};
+        SegmentReader.readBlock(file, offset, line -> {
+            if (line.startsWith(prefix)) {
+                found[0] = line;
+            }
+        });
+        if (found[0] == null) {
+            throw new IOException("record " + id + " is missing from " + file.getName());
+        }
+        return found[0];
+    }
+
+    // Method to read a record and remove it from the archive index
+    // Returns the encoded line, or null if the record is not archived
+    public String take(int id) throws IOException {
+        String line = read(id);
+        index.remove(id);
+        return line;
+    }
+
+    // Method to visit every live archived record in file order
+    public void forEachRecord(final RecordVisitor visitor) throws IOException {
+        if (index.isEmpty()) {
+            return;
+        }
+        final RecordCodec codec = new RecordCodec();
+        final long[] blockOffset = {0};
+        SegmentReader.read(file, null, new RecordVisitor() {
+            @Override
+            public void block(long offset) {
+                blockOffset[0] = offset;
+            }
+
+            @Override
+            public void visit(String line) throws IOException {
+                int id;
+                try {
+                    codec.reset(line);
+                    id = codec.nextInt();
+                } catch (NumberFormatException e) {
+                    return;
+                }
+                // Skip stale copies: only the indexed block holds the current one
+                Long offset = index.get(id);
+                if (offset != null && offset == blockOffset[0]) {
+                    visitor.visit(line);
                 }
             }
+        });
+    }
+
+    // Method to rewrite the archive without stale copies once they outnumber live ones
+    // (or after damaged blocks were skipped, so the damage is not reported again)
+    public void compactIfNeeded() throws IOException {
+        if (damage == null && lineCount - index.size() <= index.size()) {
+            return;
+        }
+        requireReadable();
+        // Copy live records into a new file, which then replaces the old archive
+        final Map<Integer, Long> newIndex = new HashMap<>();
+        final RecordCodec codec = new RecordCodec();
+        try (final SegmentWriter writer = new SegmentWriter(file)) {
+            forEachRecord(line -> {
+                codec.reset(line);
+                newIndex.put(codec.nextInt(), writer.nextBlockOffset());
+                writer.write(line);
+                writer.write('\n');
+            });
+            writer.commit();
+        }
+        index.clear();
+        index.putAll(newIndex);
+        lineCount = index.size();
+        damage = null;
+    }
+
+    // Fail if the archive could not be read, so it is never appended to or rewritten
+    private void requireReadable() throws IOException {
+        if (!readable) {
+            throw new IOException(file.getName() + " could not be read, so it is left unchanged");
+        }
+    }
+}
+
+// Callback used to visit archived records one line at a time
+interface RecordVisitor {
+    void visit(String line) throws IOException;
+
+    // Called in file order when a damaged region is skipped (its records are lost)
+    default void skipped(long offset, long length) {
+    }
+
+    // Called before the lines of each good block, with the block's file offset
+    default void block(long offset) {
+    }
+}
+
+// Callback used to write the record with a given ID into a data file
+interface RecordEncoder {
+    void write(int id, Writer out) throws IOException;
+}
+
+// ===== SEGMENT FILE CLASSES =====
+// Data files are stored as a sequence of compressed, checksummed blocks:
+//   file  = MAGIC block*
+//   block = rawLength(int) compressedLength(int) crc32c(int) compressedBytes
+// Each block holds whole UTF-8 record lines compressed with Deflate, and the CRC32C
+// covers the compressed bytes. Files are written to a temporary file and renamed,
+// so a crash while saving leaves the previous file intact. Records are written in
+// ID order, which lets a small SegmentIndex find the block holding any ID.
+// Archive files are the exception: new blocks are appended to the existing file.
+class SegmentWriter extends Writer {
+    // Marker at the start of every segment file ("CLS1")
+    public static final int MAGIC = 0x434C5331;
+    // Uncompressed size at which a block is closed
+    public static final int BLOCK_SIZE = 64 * 1024;
+
+    // Final file and the temporary file being written
+    private final File target;
+    private final File temp;
+    // Output for the temporary file
+    private final FileOutputStream fileOut;
+    private final DataOutputStream out;
+    // Uncompressed bytes of the current block
+    private final ByteArrayOutputStream block;
+    // Encodes characters as UTF-8 into the current block
+    private final Writer encoder;
+    // Reused compressor, checksum and output buffer
+    private final Deflater deflater;
+    private final CRC32C crc;
+    private byte[] compressed;
+    // True once commit() has renamed the file into place
+    private boolean committed;
+    // Length of the file before appending, or -1 when writing a new file
+    private final long appendStart;
+    // Bytes written to the file so far (where the next block starts)
+    private long written;
+    // First record ID and file offset of every block written so far
+    private int[] blockFirstIds;
+    private long[] blockOffsets;
+    private int blockCount;
+    // First record ID of the current block, if it has a record yet
+    private int currentFirstId;
+    private boolean blockHasRecord;
+
+    // Constructor to start writing a new segment file
+    public SegmentWriter(File target) throws IOException {
+        this(target, false);
+    }
+
+    // Method to open a segment file for adding blocks at its end (used by the archives)
+    // commit() syncs the new blocks; close() without commit cuts them off again
+    public static SegmentWriter appendTo(File target) throws IOException {
+        return new SegmentWriter(target, true);
+    }
+
+    // Constructor shared by both modes
+    private SegmentWriter(File target, boolean append) throws IOException {
+        this.target = target;
+        this.temp = append ? target : new File(target.getPath() + ".tmp");
+        this.appendStart = append ? target.length() : -1;
+        this.fileOut = new FileOutputStream(temp, append);
+        this.out = new DataOutputStream(new BufferedOutputStream(fileOut, BLOCK_SIZE));
+        this.block = new ByteArrayOutputStream(BLOCK_SIZE + 1024);
+        this.encoder = new OutputStreamWriter(block, StandardCharsets.UTF_8);
+        this.deflater = new Deflater(Deflater.BEST_SPEED);
+        this.crc = new CRC32C();
+        this.compressed = new byte[BLOCK_SIZE];
+        this.blockFirstIds = new int[16];
+        this.blockOffsets = new long[16];
+        if (appendStart > 0) {
+            this.written = appendStart;
+        } else {
+            out.writeInt(MAGIC);
+            this.written = 4;
+        }
+    }
+
+    // Get the file offset of the block the next record will be written into
+    public long nextBlockOffset() {
+        return written;
+    }
+
+    // Method to announce the ID of the next record (records must come in ascending ID order)
+    public void beginRecord(int id) {
+        if (!blockHasRecord) {
+            currentFirstId = id;
+            blockHasRecord = true;
+        }
+    }
+
+    // Write characters into the current block
+    // Blocks are only closed at the end of a line, so records never span two blocks
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        encoder.write(cbuf, off, len);
+        if (len > 0 && cbuf[off + len - 1] == '\n') {
+            encoder.flush();
+            if (block.size() >= BLOCK_SIZE) {
+                writeBlock();
+            }
+        }
+    }
+
+    // Compress the current block and write it with its header
+    private void writeBlock() throws IOException {
+        encoder.flush();
+        if (block.size() == 0) {
+            return;
+        }
+        byte[] raw = block.toByteArray();
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+        int compressedLength = 0;
+        while (!deflater.finished()) {
+            // Grow the output buffer if the data did not compress
+            if (compressedLength == compressed.length) {
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            }
+            compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+        }
+        crc.reset();
+        crc.update(compressed, 0, compressedLength);
+        out.writeInt(raw.length);
+        out.writeInt(compressedLength);
+        out.writeInt((int) crc.getValue());
+        out.write(compressed, 0, compressedLength);
+        block.reset();
+        
+        // Remember where the block starts for the sidecar index
+        if (blockCount == blockOffsets.length) {
+            blockFirstIds = Arrays.copyOf(blockFirstIds, blockCount * 2);
+            blockOffsets = Arrays.copyOf(blockOffsets, blockCount * 2);
+        }
+        blockFirstIds[blockCount] = currentFirstId;
+        blockOffsets[blockCount] = written;
+        blockCount++;
+        written += 12 + compressedLength;
+        blockHasRecord = false;
+    }
+
+    // Method to copy a block from another segment file unchanged (header and compressed
+    // bytes, as returned by SegmentReader.readStoredBlock), so it is not decompressed
+    // and compressed again. firstId is the ID of the block's first record.
+    public void copyBlock(int firstId, byte[] stored) throws IOException {
+        // Close the block being filled, so the copied block keeps the IDs in order
+        writeBlock();
+        out.write(stored);
+        if (blockCount == blockOffsets.length) {
+            blockFirstIds = Arrays.copyOf(blockFirstIds, blockCount * 2);
+            blockOffsets = Arrays.copyOf(blockOffsets, blockCount * 2);
+        }
+        blockFirstIds[blockCount] = firstId;
+        blockOffsets[blockCount] = written;
+        blockCount++;
+        written += stored.length;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        // Blocks are written when full or on commit, so there is nothing to do here
+    }
+
+    // Method to finish the file and replace the target with it
+    public void commit() throws IOException {
+        writeBlock();
+        out.flush();
+        // Make sure the data is on disk before the rename makes it visible
+        fileOut.getFD().sync();
+        out.close();
+        deflater.end();
+        committed = true;
+        if (appendStart >= 0) {
+            return; // Appended blocks are already in place
+        }
+        try {
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            // Some file systems cannot rename atomically; a plain replace is the best we can do
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // Method to write the sidecar index for the committed file
+    public void writeIndex(File indexFile, int nextId) throws IOException {
+        SegmentIndex.write(indexFile, target, Arrays.copyOf(blockFirstIds, blockCount),
+                Arrays.copyOf(blockOffsets, blockCount), nextId);
+    }
+
+    // Method to get the block index of the committed file (no block is marked as read)
+    public SegmentIndex toIndex(int nextId) {
+        return new SegmentIndex(Arrays.copyOf(blockFirstIds, blockCount),
+                Arrays.copyOf(blockOffsets, blockCount), nextId);
+    }
+
+    // Close without commit discards the temporary file (or the appended blocks)
+    @Override
+    public void close() throws IOException {
+        if (!committed) {
+            committed = true;
+            deflater.end();
+            try {
+                out.close();
+            } finally {
+                if (appendStart >= 0) {
+                    try (RandomAccessFile raf = new RandomAccessFile(target, "rw")) {
+                        raf.setLength(appendStart);
+                    }
+                } else {
+                    temp.delete();
+                }
+            }
+        }
+    }
+}
+
+// Reads a segment file block by block, verifying each block before using it.
+// A corrupt block is skipped and reading carries on with the next good block (found by
+// its header and checksum if the damaged header's length cannot be trusted), so one bad
+// block only loses its own records. Only an unreadable tail is cut off the file.
+class SegmentReader {
+    // Largest block size accepted, to reject garbage lengths before allocating
+    private static final int MAX_BLOCK_SIZE = 64 * 1024 * 1024;
+
+    // A verified block: its uncompressed bytes and its size in the file
+    private static class Block {
+        final byte[] raw;
+        final int storedLength;
+
+        Block(byte[] raw, int storedLength) {
+            this.raw = raw;
+            this.storedLength = storedLength;
+        }
+    }
+
+    // Method to read every record line in the file
+    // Damaged regions are skipped and reported to the visitor. To repair the file, pass
+    // a file name for a copy (null to leave the file alone): if anything was damaged, the
+    // original is first copied there and then an unreadable tail is cut off.
+    // Returns the total number of damaged bytes
+    public static long read(File file, File corruptCopy, RecordVisitor visitor) throws IOException {
+        long fileLength = file.length();
+        long damaged = 0;
+        // End of the last good block (everything after it is an unreadable tail)
+        long goodEnd;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (fileLength < 4 || raf.readInt() != SegmentWriter.MAGIC) {
+                throw new IOException(file.getName() + " is not a library data file");
+            }
+            goodEnd = 4;
+            long pos = 4;
+            Inflater inflater = new Inflater();
+            try {
+                while (pos < fileLength) {
+                    Block block = readBlock(raf, pos, fileLength, inflater);
+                    if (block != null) {
+                        // Block is good: hand its lines to the visitor
+                        visitor.block(pos);
+                        visitLines(block.raw, visitor);
+                        pos += block.storedLength;
+                        goodEnd = pos;
+                        continue;
+                    }
+                    // Block is damaged: carry on from the next block that verifies
+                    long next = findNextBlock(raf, pos, fileLength, inflater);
+                    if (next < 0) {
+                        break; // Nothing readable follows
+                    }
+                    visitor.skipped(pos, next - pos);
+                    damaged += next - pos;
+                    pos = next;
+                }
+            } finally {
+                inflater.end();
+            }
+        }
+        long tail = fileLength - goodEnd;
+        if (tail > 0) {
+            visitor.skipped(goodEnd, tail);
+            damaged += tail;
+        }
+        
+        if (damaged > 0 && corruptCopy != null) {
+            // Keep the damaged original, since the next save replaces the file
+            Files.copy(file.toPath(), corruptCopy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            if (tail > 0) {
+                try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                    raf.setLength(goodEnd);
+                }
+            }
+        }
+        return damaged;
+    }
+
+    // Get an unused name for the copy of a damaged file (name.corrupt, name.corrupt.1, ...)
+    public static File corruptCopyFor(File file) {
+        File copy = new File(file.getPath() + ".corrupt");
+        for (int i = 1; copy.exists(); i++) {
+            copy = new File(file.getPath() + ".corrupt." + i);
+        }
+        return copy;
+    }
+
+    // Method to read the record lines of the single block starting at an offset
+    public static void readBlock(File file, long offset, RecordVisitor visitor) throws IOException {
+        Inflater inflater = new Inflater();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            Block block = readBlock(raf, offset, raf.length(), inflater);
+            if (block == null) {
+                throw new IOException(file.getName() + " has a damaged block at offset " + offset);
+            }
+            visitLines(block.raw, visitor);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    // Method to read the stored bytes (header and compressed data) of the block at an
+    // offset, for copying it into a new file without decompressing it
+    // Only the checksum is verified; returns null if the block is torn or corrupt
+    public static byte[] readStoredBlock(RandomAccessFile raf, long offset) throws IOException {
+        long fileLength = raf.length();
+        if (fileLength - offset < 12) {
+            return null;
+        }
+        raf.seek(offset);
+        int rawLength = raf.readInt();
+        int compressedLength = raf.readInt();
+        int expectedCrc = raf.readInt();
+        if (!plausibleHeader(rawLength, compressedLength, fileLength - offset - 12)) {
+            return null;
+        }
+        byte[] stored = new byte[12 + compressedLength];
+        raf.seek(offset);
+        raf.readFully(stored);
+        CRC32C crc = new CRC32C();
+        crc.update(stored, 12, compressedLength);
+        return (int) crc.getValue() == expectedCrc ? stored : null;
+    }
+
+    // Read and verify the block at an offset; returns null if it is torn or corrupt
+    private static Block readBlock(RandomAccessFile raf, long offset, long fileLength, Inflater inflater) throws IOException {
+        // A header that does not fit in the file means the write was torn
+        if (fileLength - offset < 12) {
+            return null;
+        }
+        raf.seek(offset);
+        int rawLength = raf.readInt();
+        int compressedLength = raf.readInt();
+        int expectedCrc = raf.readInt();
+        if (!plausibleHeader(rawLength, compressedLength, fileLength - offset - 12)) {
+            return null;
+        }
+        byte[] compressed = new byte[compressedLength];
+        raf.readFully(compressed);
+        
+        // Verify the checksum before decompressing
+        CRC32C crc = new CRC32C();
+        crc.update(compressed, 0, compressedLength);
+        if ((int) crc.getValue() != expectedCrc) {
+            return null;
+        }
+        byte[] raw = new byte[rawLength];
+        inflater.reset();
+        inflater.setInput(compressed, 0, compressedLength);
+        try {
+            if (inflater.inflate(raw) != rawLength || !inflater.finished()) {
+                return null;
+            }
+        } catch (DataFormatException e) {
+            return null;
+        }
+        return new Block(raw, 12 + compressedLength);
+    }
+
+    // Check if block header lengths could be real (Deflate never grows data by more
+    // than a few bytes per 16 KiB, so a much larger compressed length is garbage)
+    private static boolean plausibleHeader(int rawLength, int compressedLength, long available) {
+        return rawLength > 0 && rawLength <= MAX_BLOCK_SIZE && compressedLength > 0
+                && compressedLength <= available && compressedLength <= rawLength + rawLength / 8 + 64;
+    }
+
+    // Find the offset of the next good block after a damaged one, or -1 if there is none
+    private static long findNextBlock(RandomAccessFile raf, long damagedOffset, long fileLength, Inflater inflater) throws IOException {
+        // Usually only the data is damaged and the header's own length is right
+        raf.seek(damagedOffset);
+        if (fileLength - damagedOffset >= 12) {
+            raf.readInt();
+            long next = damagedOffset + 12 + (raf.readInt() & 0xFFFFFFFFL);
+            if (next > damagedOffset + 12 && next < fileLength && readBlock(raf, next, fileLength, inflater) != null) {
+                return next;
+            }
+        }
+        // Otherwise scan byte by byte for a header whose block verifies
+        byte[] window = new byte[SegmentWriter.BLOCK_SIZE];
+        long windowStart = damagedOffset + 1;
+        while (windowStart + 12 <= fileLength) {
+            raf.seek(windowStart);
+            int length = (int) Math.min(window.length, fileLength - windowStart);
+            raf.readFully(window, 0, length);
+            // Check every offset whose lengths fit in the window
+            for (int i = 0; i + 8 <= length; i++) {
+                int rawLength = readInt(window, i);
+                int compressedLength = readInt(window, i + 4);
+                long candidate = windowStart + i;
+                if (plausibleHeader(rawLength, compressedLength, fileLength - candidate - 12)
+                        && readBlock(raf, candidate, fileLength, inflater) != null) {
+                    return candidate;
+                }
+            }
+            // Move on, overlapping so no header is split between windows
+            windowStart += Math.max(1, length - 7);
+        }
+        return -1;
+    }
+
+    // Read a big-endian int from a byte array
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16
+                | (bytes[offset + 2] & 0xFF) << 8 | (bytes[offset + 3] & 0xFF);
+    }
+
+    // Split a block into lines and pass each one to the visitor
+    private static void visitLines(byte[] raw, RecordVisitor visitor) throws IOException {
+        int lineStart = 0;
+        for (int i = 0; i < raw.length; i++) {
+            if (raw[i] == '\n') {
+                visitor.visit(new String(raw, lineStart, i - lineStart, StandardCharsets.UTF_8));
+                lineStart = i + 1;
+            }
+        }
+    }
+}
+
+// Visitor wrapper that works out which record IDs were lost in damaged blocks.
+// Data files are written in ID order, so lost records lie between the last record
+// read before a damaged region and the first record read after it.
+class LostRecordReport implements RecordVisitor {
+    // Visitor that receives the records that were read
+    private final RecordVisitor target;
+    // True if records are in ID order, so lost ID ranges can be worked out
+    private final boolean idOrdered;
+    // Descriptions of the lost ID ranges
+    private final List<String> lostRanges = new ArrayList<>();
+    // Total damaged bytes skipped
+    private long damagedBytes;
+    // Leading ID of the last record read (null before the first one)
+    private String lastId;
+    // Last ID before the damaged region waiting for its upper bound
+    private String lostAfter;
+    private boolean lostPending;
+
+    // Constructor to wrap the visitor that loads the records of an ID-ordered file
+    public LostRecordReport(RecordVisitor target) {
+        this(target, true);
+    }
+
+    // Constructor for files that may not be in ID order (only damaged bytes are counted)
+    public LostRecordReport(RecordVisitor target, boolean idOrdered) {
+        this.target = target;
+        this.idOrdered = idOrdered;
+    }
+
+    @Override
+    public void visit(String line) throws IOException {
+        String id = leadingId(line);
+        if (lostPending && id != null) {
+            lostRanges.add(lostAfter == null ? "before ID " + id : "between IDs " + lostAfter + " and " + id);
+            lostPending = false;
+        }
+        if (id != null) {
+            lastId = id;
+        }
+        target.visit(line);
+    }
+
+    @Override
+    public void block(long offset) {
+        target.block(offset);
+    }
+
+    @Override
+    public void skipped(long offset, long length) {
+        target.skipped(offset, length);
+        damagedBytes += length;
+        if (!lostPending) {
+            lostPending = true;
+            lostAfter = lastId;
+        }
+    }
+
+    // Get the leading number of a record line, or null if it does not start with one
+    private static String leadingId(String line) {
+        int end = 0;
+        while (end < line.length() && Character.isDigit(line.charAt(end))) {
+            end++;
+        }
+        return end > 0 && end < line.length() && line.charAt(end) == '|' ? line.substring(0, end) : null;
+    }
+
+    // Get the total number of damaged bytes skipped
+    public long getDamagedBytes() {
+        return damagedBytes;
+    }
+
+    // Get the lost ID ranges, e.g. "between IDs 1500 and 2301", or "all records"
+    // (empty if the file is not in ID order)
+    public List<String> getLostRanges() {
+        if (!idOrdered) {
+            return Collections.emptyList();
+        }
+        List<String> ranges = new ArrayList<>(lostRanges);
+        if (lostPending) {
+            ranges.add(lostAfter == null ? "all records" : "after ID " + lostAfter);
+        }
+        return ranges;
+    }
+}
+
+// Sparse index of a segment file: the first record ID and file offset of each block,
+// plus the next free ID. It is saved next to the data file (.idx) so a lazy start can
+// locate any record without reading the data file. The index records the data file's
+// length and modification time and is ignored if either no longer matches.
+class SegmentIndex {
+    // Marker at the start of every index file ("CLSI")
+    private static final int MAGIC = 0x434C5349;
+
+    // First record ID and file offset of each block (ascending IDs)
+    private final int[] firstIds;
+    private final long[] offsets;
+    // Blocks whose records have already been read
+    private final boolean[] loaded;
+    // Next free ID at the time the data file was saved
+    private final int nextId;
+
+    // Constructor to create an index from its block tables
+    public SegmentIndex(int[] firstIds, long[] offsets, int nextId) {
+        this.firstIds = firstIds;
+        this.offsets = offsets;
+        this.loaded = new boolean[firstIds.length];
+        this.nextId = nextId;
+    }
+
+    // Get the next free ID recorded when the file was saved
+    public int getNextId() {
+        return nextId;
+    }
+
+    // Find the block that would hold an ID, or -1 if the ID is below the first block
+    public int blockFor(int id) {
+        int low = 0;
+        int high = firstIds.length - 1;
+        int found = -1;
+        // Binary search for the last block whose first ID is <= id
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (firstIds[mid] <= id) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    // Get the number of blocks in the file
+    public int blockCount() {
+        return firstIds.length;
+    }
+
+    // Get the ID of the first record in a block
+    public int firstIdOf(int block) {
+        return firstIds[block];
+    }
+
+    // Get the file offset of a block
+    public long offsetOf(int block) {
+        return offsets[block];
+    }
+
+    // Check if a block's records have been read
+    public boolean isLoaded(int block) {
+        return loaded[block];
+    }
+
+    // Mark a block's records as read
+    public void markLoaded(int block) {
+        loaded[block] = true;
+    }
+
+    // Method to write an index file for a data file (temporary file, then rename)
+    public static void write(File indexFile, File dataFile, int[] firstIds, long[] offsets, int nextId) throws IOException {
+        File temp = new File(indexFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeLong(dataFile.length());
+            out.writeLong(dataFile.lastModified());
+            out.writeInt(nextId);
+            out.writeInt(firstIds.length);
+            for (int i = 0; i < firstIds.length; i++) {
+                out.writeInt(firstIds[i]);
+                out.writeLong(offsets[i]);
+            }
+        }
+        Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // Method to load the index of a data file
+    // Returns null if the index is missing, damaged or older than the data file
+    public static SegmentIndex load(File indexFile, File dataFile) {
+        if (!indexFile.exists() || !dataFile.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC || in.readLong() != dataFile.length()
+                    || in.readLong() != dataFile.lastModified()) {
+                return null;
+            }
+            int nextId = in.readInt();
+            int count = in.readInt();
+            if (count < 0 || count > indexFile.length() / 12) {
+                return null;
+            }
+            int[] firstIds = new int[count];
+            long[] offsets = new long[count];
+            for (int i = 0; i < count; i++) {
+                firstIds[i] = in.readInt();
+                offsets[i] = in.readLong();
+            }
+            return new SegmentIndex(firstIds, offsets, nextId);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
+
+// ===== RECOMMENDATION CLASSES =====
+// Sparse map from int keys to int counts using open addressing (no boxing).
+class IntCountMap {
+    // Marks an empty slot (never used as a book ID)
+    private static final int EMPTY = Integer.MIN_VALUE;
+
+    // Slot keys and counts; the arrays always have a power-of-two length
+    private int[] keys;
+    private int[] counts;
+    // Number of used slots
+    private int size;
+
+    // Constructor to create an empty map
+    public IntCountMap() {
+        keys = new int[8];
+        counts = new int[8];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    // Get the number of keys in the map
+    public int size() {
+        return size;
+    }
+
+    // Set the count of a key (used when loading a saved model)
+    public void put(int key, int count) {
+        if (size * 2 >= keys.length) {
+            resize(keys.length * 2);
+        }
+        int slot = slotFor(key);
+        if (keys[slot] == EMPTY) {
+            keys[slot] = key;
+            size++;
+        }
+        counts[slot] = count;
+    }
+
+    // Copy the keys and counts into the given arrays (each at least size() long)
+    public void copyTo(int[] keysOut, int[] countsOut) {
+        int n = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                keysOut[n] = keys[i];
+                countsOut[n] = counts[i];
+                n++;
+            }
+        }
+    }
+
+    // Add one to the count of a key
+    public void increment(int key) {
+        // Keep the table at most half full so probe chains stay short
+        if (size * 2 >= keys.length) {
+            resize(keys.length * 2);
+        }
+        int slot = slotFor(key);
+        if (keys[slot] == EMPTY) {
+            keys[slot] = key;
+            size++;
+        }
+        counts[slot]++;
+    }
+
+    // Find the slot holding the key, or the empty slot where it belongs
+    private int slotFor(int key) {
+        int mask = keys.length - 1;
+        int slot = (key * 0x9E3779B9) >>> 16 & mask;
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    // Rebuild the table with a new capacity
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldCounts = counts;
+        keys = new int[capacity];
+        counts = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = slotFor(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+
+    // Keep only the keys with the highest counts (ties at the cut-off are kept by slot order)
+    public void retainTop(int keep) {
+        if (size <= keep) {
+            return;
+        }
+        // Find the smallest count that still makes the cut
+        int[] sorted = new int[size];
+        int n = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                sorted[n++] = counts[i];
+            }
+        }
+        Arrays.sort(sorted);
+        int threshold = sorted[size - keep];
+        // Number of entries equal to the threshold that still fit
+        int tiesLeft = keep;
+        for (int i = size - 1; i >= 0 && sorted[i] > threshold; i--) {
+            tiesLeft--;
+        }
+        
+        // Move the surviving entries into a table sized for them
+        int[] oldKeys = keys;
+        int[] oldCounts = counts;
+        int capacity = 8;
+        while (capacity < keep * 2) {
+            capacity *= 2;
+        }
+        keys = new int[capacity];
+        counts = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == EMPTY || oldCounts[i] < threshold) {
+                continue;
+            }
+            if (oldCounts[i] == threshold) {
+                if (tiesLeft == 0) {
+                    continue;
+                }
+                tiesLeft--;
+            }
+            int slot = slotFor(oldKeys[i]);
+            keys[slot] = oldKeys[i];
+            counts[slot] = oldCounts[i];
+            size++;
+        }
+    }
+
+    // Get up to k keys ordered by count (highest first, then lowest key)
+    public int[] topKeys(int k) {
+        int[] bestKeys = new int[Math.min(k, size)];
+        int[] bestCounts = new int[bestKeys.length];
+        int found = 0;
+        for (int i = 0; i < keys.length && bestKeys.length > 0; i++) {
+            if (keys[i] == EMPTY) {
+                continue;
+            }
+            int key = keys[i];
+            int count = counts[i];
+            // Skip entries that do not beat the current last place
+            if (found == bestKeys.length && !ranksBefore(count, key, bestCounts[found - 1], bestKeys[found - 1])) {
+                continue;
+            }
+            // Insertion into the small sorted top list
+            int pos = found < bestKeys.length ? found++ : found - 1;
+            while (pos > 0 && ranksBefore(count, key, bestCounts[pos - 1], bestKeys[pos - 1])) {
+                bestKeys[pos] = bestKeys[pos - 1];
+                bestCounts[pos] = bestCounts[pos - 1];
+                pos--;
+            }
+            bestKeys[pos] = key;
+            bestCounts[pos] = count;
+        }
+        return bestKeys;
+    }
+
+    // Check if (count1, key1) should be listed before (count2, key2)
+    private static boolean ranksBefore(int count1, int key1, int count2, int key2) {
+        return count1 > count2 || (count1 == count2 && key1 < key2);
+    }
+}
+
+// Item-to-item co-borrowing model for "patrons who borrowed this also borrowed".
+// Every loan pairs the book with the member's recent loans and counts each pair.
+// Neighbour lists are pruned to the strongest entries to bound memory.
+class CoBorrowModel {
+    // Recent loans remembered per member when pairing new loans
+    private static final int HISTORY_SIZE = 32;
+    // Neighbours kept per book after pruning
+    private static final int KEEP_NEIGHBOURS = 64;
+    // Neighbour count at which a book's list is pruned back to KEEP_NEIGHBOURS
+    private static final int PRUNE_AT = 256;
+
+    // Book ID -> counts of other books borrowed by the same members
+    private final Map<Integer, IntCountMap> coCounts = new HashMap<>();
+    // Member ID -> recently borrowed books
+    private final Map<Integer, LoanHistory> recentLoans = new HashMap<>();
+
+    // Ring buffer of a member's recent loans
+    // The count maps are kept next to the IDs so pairing needs no extra lookups
+    private static class LoanHistory {
+        final int[] bookIds = new int[HISTORY_SIZE];
+        final IntCountMap[] neighbours = new IntCountMap[HISTORY_SIZE];
+        int loans; // Total loans recorded (the slot for the next one is loans % HISTORY_SIZE)
+    }
+
+    // Method to update the model when a member borrows a book
+    public void recordLoan(int memberId, int bookId) {
+        LoanHistory history = recentLoans.computeIfAbsent(memberId, id -> new LoanHistory());
+        int remembered = Math.min(history.loans, HISTORY_SIZE);
+        
+        // Borrowing the same book again adds no new pairs
+        for (int i = 0; i < remembered; i++) {
+            if (history.bookIds[i] == bookId) {
+                return;
+            }
+        }
+        // Pair the new book with each remembered book, in both directions
+        IntCountMap counts = coCounts.computeIfAbsent(bookId, id -> new IntCountMap());
+        for (int i = 0; i < remembered; i++) {
+            addPair(counts, history.bookIds[i]);
+            addPair(history.neighbours[i], bookId);
+        }
+        // Remember the loan, replacing the oldest one when full
+        int slot = history.loans % HISTORY_SIZE;
+        history.bookIds[slot] = bookId;
+        history.neighbours[slot] = counts;
+        history.loans++;
+    }
+
+    // Count one co-borrowing in a book's neighbour counts
+    private static void addPair(IntCountMap counts, int otherBookId) {
+        counts.increment(otherBookId);
+        if (counts.size() >= PRUNE_AT) {
+            counts.retainTop(KEEP_NEIGHBOURS);
+        }
+    }
+
+    // Method to get up to k books most often borrowed together with the given book
+    public int[] recommend(int bookId, int k) {
+        IntCountMap counts = coCounts.get(bookId);
+        return counts == null ? new int[0] : counts.topKeys(k);
+    }
+
+    // Method to write the model as lines, so it survives a restart:
+    //   B|bookId|otherBookIds|counts    neighbour counts of a book
+    //   M|memberId|recentBookIds|loans  a member's recent loans in ring order
+    public void write(RecordCodec codec, Writer writer) throws IOException {
+        int[] ids = new int[PRUNE_AT];
+        int[] counts = new int[PRUNE_AT];
+        for (Map.Entry<Integer, IntCountMap> entry : coCounts.entrySet()) {
+            IntCountMap neighbours = entry.getValue();
+            // Books with no pairs yet are recreated from the loan histories
+            if (neighbours.size() == 0) {
+                continue;
+            }
+            neighbours.copyTo(ids, counts);
+            codec.writeIdLists('B', entry.getKey(), ids, neighbours.size(), counts, neighbours.size(), writer);
+        }
+        int[] loans = new int[1];
+        for (Map.Entry<Integer, LoanHistory> entry : recentLoans.entrySet()) {
+            LoanHistory history = entry.getValue();
+            loans[0] = history.loans;
+            codec.writeIdLists('M', entry.getKey(), history.bookIds, Math.min(history.loans, HISTORY_SIZE),
+                    loans, 1, writer);
+        }
+    }
+
+    // Method to restore one line written by write()
+    // Throws NumberFormatException if the line is not a valid model record
+    public void readLine(RecordCodec codec, String line) {
+        codec.reset(line);
+        String type = codec.nextText();
+        int id = codec.nextInt();
+        int[] ids = new int[PRUNE_AT];
+        int idCount = 0;
+        while (codec.hasNextId()) {
+            if (idCount == ids.length) {
+                throw new NumberFormatException("Too many IDs in record");
+            }
+            ids[idCount++] = codec.nextId();
+        }
+        codec.endField();
+        
+        if (type.equals("B")) {
+            IntCountMap neighbours = coCounts.computeIfAbsent(id, bookId -> new IntCountMap());
+            for (int i = 0; i < idCount; i++) {
+                if (!codec.hasNextId()) {
+                    throw new NumberFormatException("Missing count in record");
+                }
+                neighbours.put(ids[i], codec.nextId());
+            }
+        } else if (type.equals("M")) {
+            int loans = codec.nextInt();
+            if (loans < 0 || idCount != Math.min(loans, HISTORY_SIZE)) {
+                throw new NumberFormatException("Loan count does not match the loan history");
+            }
+            LoanHistory history = new LoanHistory();
+            for (int i = 0; i < idCount; i++) {
+                history.bookIds[i] = ids[i];
+                // Share the book's count map, as recordLoan() does
+                history.neighbours[i] = coCounts.computeIfAbsent(ids[i], bookId -> new IntCountMap());
+            }
+            history.loans = loans;
+            recentLoans.put(id, history);
+        } else {
+            throw new NumberFormatException("Unknown record type " + type);
+        }
+    }
+}
+
+// ===== LIBRARY MANAGER CLASS =====
+// This class manages all library operations
+public class LibraryManager {
+    // Map to store books with book ID as key
+    private Map<Integer, Book> books;
+    // Map to store members with member ID as key
+    private Map<Integer, Member> members;
+    // Counter to auto-generate unique book IDs
+    private int bookIdCounter;
+    // Counter to auto-generate unique member IDs
+    private int memberIdCounter;
+    // File path for storing books data (compressed, checksummed blocks)
+    private static final String BOOKS_FILE = "books.dat";
+    // File path for storing members data (compressed, checksummed blocks)
+    private static final String MEMBERS_FILE = "members.dat";
+    // Plain text files used by older versions (read only if no .dat file exists yet)
+    private static final String LEGACY_BOOKS_FILE = "books.txt";
+    private static final String LEGACY_MEMBERS_FILE = "members.txt";
+    // Sidecar block indexes of the data files, used for lazy start
+    private static final String BOOKS_INDEX_FILE = "books.idx";
+    private static final String MEMBERS_INDEX_FILE = "members.idx";
+    // Start without reading every record (-Dlibrary.lazy=true)
+    private static final boolean LAZY_START = Boolean.getBoolean("library.lazy");
+    // Names of the fields books can be searched and sorted by (menu choices 1-3)
+    private static final String[] FIELD_NAMES = {"Title", "Author", "Category"};
+    // Collections at least this large are sorted and aggregated in parallel
+    // (override with -Dlibrary.parallel.threshold=N). Below 50,000 books a sequential
+    // sort takes under about 20 ms, so splitting it up cannot save noticeable time.
+    // With a single CPU the parallel paths are never used, since the extra threads
+    // only add overhead there (up to twice as slow when measured).
+    private static final int PARALLEL_THRESHOLD = Integer.getInteger("library.parallel.threshold",
+            Runtime.getRuntime().availableProcessors() > 1 ? 50000 : Integer.MAX_VALUE);
+    // Number of members shown in the top borrowers list
+    private static final int TOP_BORROWERS = 5;
+    // Number of books suggested by "patrons who borrowed this also borrowed"
+    private static final int TOP_RECOMMENDATIONS = 5;
+    // Archive files for records that have not been used for a long time
+    // (same block format as the data files)
+    private static final String BOOKS_ARCHIVE_FILE = "books_archive.dat";
+    private static final String MEMBERS_ARCHIVE_FILE = "members_archive.dat";
+    // Plain text archive files used by older versions (converted when first read)
+    private static final String LEGACY_BOOKS_ARCHIVE_FILE = "books_archive.txt";
+    private static final String LEGACY_MEMBERS_ARCHIVE_FILE = "members_archive.txt";
+    // Saved co-borrowing model (same block format as the data files)
+    private static final String RECOMMENDATIONS_FILE = "recommendations.dat";
+    // Loans made since the model was last saved, one "memberId|bookId" line each
+    private static final String LOAN_LOG_FILE = "recommendations.log";
+    // Size at which the loan log is folded into the saved model even if the model
+    // was not used this session
+    private static final long LOAN_LOG_COMPACT_BYTES = 1024 * 1024;
+    // Records idle for this many days are archived on save (0 disables archiving,
+    // override with -Dlibrary.archive.days=N)
+    private static final int ARCHIVE_AFTER_DAYS = Integer.getInteger("library.archive.days", 365);
+    // Scanner for user input
+    private Scanner sc;
+    // Reusable codec for reading and writing file records
+    private RecordCodec codec;
+    // Archived (cold) books and members, read back on demand
+    private ColdStore coldBooks;
+    private ColdStore coldMembers;
+    // Reusable buffer for encoding records going to the archive
+    private StringWriter recordBuffer;
+    // True when changes are saved only at checkpoints (batch mode)
+    private boolean deferSaves;
+    // Co-borrowing model used for book recommendations
+    private CoBorrowModel recommender;
+    // True once the model has been read from its files (or seeded from current loans)
+    private boolean recommenderLoaded;
+    // True if the model changed since it was last saved
+    private boolean recommenderChanged;
+    // Loans not yet written to the loan log ("memberId|bookId" lines)
+    private StringBuilder pendingLoans;
+    // True if the model file could not be read (it is then left alone when saving)
+    private boolean recommenderLoadFailed;
+    // Lazy start: block indexes of records not read yet (null when everything is loaded)
+    private SegmentIndex lazyBooks;
+    private SegmentIndex lazyMembers;
+    // Lazy start: background task reading every record for scans and saves
+    private FutureTask<LoadedRecords> hydration;
+    // True if any data file could not be read (saving would then overwrite records
+    // that were never loaded, so saves are refused until the program is restarted)
+    private boolean loadFailed;
+    // True once the archive indexes have been built
+    private boolean archivesLoaded;
+    // Archived books parsed by the first search, sort or statistics of the session,
+    // so later scans do not read the archive again (null until then)
+    private Map<Integer, Book> coldBookCache;
+    
+    // Records read by the background task, merged into the maps when needed
+    private static class LoadedRecords {
+        final Map<Integer, Book> books = new HashMap<>();
+        final Map<Integer, Member> members = new HashMap<>();
+    }
+    
+    // Constructor to initialize LibraryManager
+    public LibraryManager() {
+        // Initialize HashMap for books (provides fast lookup by ID)
+        this.books = new HashMap<>();
+        // Initialize HashMap for members
+        this.members = new HashMap<>();
+        // Initialize book ID counter starting from 101
+        this.bookIdCounter = 101;
+        // Initialize member ID counter starting from 1001
+        this.memberIdCounter = 1001;
+        // Create Scanner for reading user input
+        this.sc = new Scanner(System.in);
+        // Create the codec used by all file reads and writes
+        this.codec = new RecordCodec();
+        // Create the archive stores (indexes are built while loading)
+        this.coldBooks = new ColdStore(BOOKS_ARCHIVE_FILE, LEGACY_BOOKS_ARCHIVE_FILE);
+        this.coldMembers = new ColdStore(MEMBERS_ARCHIVE_FILE, LEGACY_MEMBERS_ARCHIVE_FILE);
+        this.recordBuffer = new StringWriter(256);
+        // Recommendations are read from their file the first time they are needed
+        this.recommender = new CoBorrowModel();
+        this.pendingLoans = new StringBuilder();
+        // Load existing data from files when program starts
+        loadFromFile();
+    }
+    
+    // ===== FILE HANDLING - LOAD DATA =====
+    // Method to load books from file
+    private void loadBooksFromFile() {
+        try {
+            // Create File objects for the data file and the older plain text file
+            File file = new File(BOOKS_FILE);
+            File legacyFile = new File(LEGACY_BOOKS_FILE);
+            
+            if (file.exists()) {
+                // Read verified blocks; a damaged tail is cut off and reported
+                // Read verified blocks; damaged blocks are skipped and reported
+                LostRecordReport report = new LostRecordReport(this::loadBookLine);
+                File copy = SegmentReader.corruptCopyFor(file);
+                SegmentReader.read(file, copy, report);
+                reportRecovery(file, copy, report);
+            } else if (legacyFile.exists()) {
+                // Older plain text file (rewritten in the block format on the next save)
+                BufferedReader br = new BufferedReader(new FileReader(legacyFile));
+                String line; // Variable to store each line read from file
+                // Older files have no escapes, so backslashes are read literally
+                codec.setEscaped(false);
+                try {
+                    // Read each line from file until EOF (null)
+                    while ((line = br.readLine()) != null) {
+                        loadBookLine(line);
+                    }
+                } finally {
+                    codec.setEscaped(true);
+                }
+                // Close BufferedReader (also closes underlying FileReader)
+                br.close();
+            } else {
+                System.out.println("Books file not found. Starting with empty inventory.\n");
+                return; // Exit method if file doesn't exist
+            }
+            System.out.println("Books loaded successfully.\n");
+            
+        } catch (FileNotFoundException e) {
+            // Handle case where the file exists but cannot be opened
+            loadFailed = true; // Saving now would replace the unread file
+            System.out.println("Books file not found: " + e.getMessage() + "\n");
+        } catch (IOException e) {
+            // Handle input/output errors (including a file not in the block format)
+            loadFailed = true;
+            System.out.println("Error reading books file: " + e.getMessage() + "\n");
+        } catch (Exception e) {
+            // Handle any other unexpected errors
+            loadFailed = true;
+            System.out.println("Error loading books: " + e.getMessage() + "\n");
+        }
+    }
+    
+    // Method to add one book record line to the map
+    private void loadBookLine(String line) {
+        // Skip empty lines
+        if (line.trim().isEmpty()) {
+            return;
+        }
+        
+        try {
+            // Decode the book from the line
+            Book book = parseBook(codec, line);
+            int bookId = book.getBookId();
+            
+            // Store book in map using book ID as key
+            books.put(bookId, book);
+            // Update book ID counter to be higher than highest existing ID
+            if (bookId >= bookIdCounter) {
+                bookIdCounter = bookId + 1;
+            }
+        } catch (NumberFormatException e) {
+            // Skip lines with invalid data
+            System.out.println("Skipping invalid book record: " + line);
+        }
+    }
+    
+    // Method to load members from file
+    private void loadMembersFromFile() {
+        try {
+            // Create File objects for the data file and the older plain text file
+            File file = new File(MEMBERS_FILE);
+            File legacyFile = new File(LEGACY_MEMBERS_FILE);
+            
+            if (file.exists()) {
+                // Read verified blocks; a damaged tail is cut off and reported
+                LostRecordReport report = new LostRecordReport(this::loadMemberLine);
+                File copy = SegmentReader.corruptCopyFor(file);
+                SegmentReader.read(file, copy, report);
+                reportRecovery(file, copy, report);
+            } else if (legacyFile.exists()) {
+                // Older plain text file (rewritten in the block format on the next save)
+                BufferedReader br = new BufferedReader(new FileReader(legacyFile));
+                String line;
+                // Older files have no escapes, so backslashes are read literally
+                codec.setEscaped(false);
+                try {
+                    // Read each line from the file
+                    while ((line = br.readLine()) != null) {
+                        loadMemberLine(line);
+                    }
+                } finally {
+                    codec.setEscaped(true);
+                }
+                // Close BufferedReader
+                br.close();
+            } else {
+                System.out.println("Members file not found. Starting with no members.\n");
+                return;
+            }
+            System.out.println("Members loaded successfully.\n");
+            
+        } catch (FileNotFoundException e) {
+            loadFailed = true; // Saving now would replace the unread file
+            System.out.println("Members file not found: " + e.getMessage() + "\n");
+        } catch (IOException e) {
+            loadFailed = true;
+            System.out.println("Error reading members file: " + e.getMessage() + "\n");
+        } catch (Exception e) {
+            loadFailed = true;
+            System.out.println("Error loading members: " + e.getMessage() + "\n");
+        }
+    }
+    
+    // Method to add one member record line to the map
+    private void loadMemberLine(String line) {
+        // Skip empty lines
+        if (line.trim().isEmpty()) {
+            return;
+        }
+        
+        try {
+            // Decode the member from the line
+            Member member = parseMember(codec, line);
+            int memberId = member.getMemberId();
+            
+            // Store member in map using member ID as key
+            members.put(memberId, member);
+            // Update member ID counter
+            if (memberId >= memberIdCounter) {
+                memberIdCounter = memberId + 1;
+            }
+        } catch (NumberFormatException e) {
+            // Skip lines with invalid member data
+            System.out.println("Skipping invalid member record: " + line);
+        }
+    }
+    
+    // Method to warn when damaged blocks were skipped while loading a data file
+    private void reportRecovery(File file, File copy, LostRecordReport report) {
+        if (report.getDamagedBytes() == 0) {
+            return;
+        }
+        System.out.println("WARNING: " + file.getName() + " was damaged. " + report.getDamagedBytes()
+                + " bytes could not be read and were skipped.");
+        for (String range : report.getLostRanges()) {
+            System.out.println("  Lost records " + range);
+        }
+        System.out.println("The damaged file was kept as " + copy.getName() + ".\n");
+    }
+    
+    // Method to decode one book line: bookId|title|author|category|isIssued|lastAccess
+    // Throws NumberFormatException if the line is not a valid book record
+    private static Book parseBook(RecordCodec codec, String line) {
+        // Scan the line field by field
+        codec.reset(line);
+        int bookId = codec.nextInt();                 // Parsed in place, no substring
+        String title = codec.nextText();              // Title with escapes removed
+        String author = codec.nextText();             // Author name
+        String category = codec.nextText();           // Category
+        boolean isIssued = codec.nextBoolean();       // Issued flag
+        
+        // Create new Book object with loaded data
+        Book book = new Book(bookId, title, author, category);
+        // If book was issued in file, mark it as issued
+        if (isIssued) {
+            book.markAsIssued();
+        }
+        // Restore last access time (older files do not have it)
+        if (codec.hasMoreFields()) {
+            book.setLastAccess(codec.nextLong());
+        }
+        return book;
+    }
+    
+    // Method to decode one member line: memberId|name|email|bookIds|lastAccess
+    // Throws NumberFormatException if the line is not a valid member record
+    private static Member parseMember(RecordCodec codec, String line) {
+        // Scan the line field by field
+        codec.reset(line);
+        int memberId = codec.nextInt();
+        String name = codec.nextText();
+        String email = codec.nextText();
+        
+        // Create new Member object
+        Member member = new Member(memberId, name, email);
+        
+        // Read the comma-separated issued book IDs (if any) in place
+        while (codec.hasNextId()) {
+            try {
+                // Add each book ID to member's issued books list
+                member.addIssuedBook(codec.nextId());
+            } catch (NumberFormatException e) {
+                // Skip invalid book IDs
+                System.out.println("Skipping invalid book ID in member record: " + memberId);
+                codec.skipId();
+            }
+        }
+        codec.endField();
+        // Restore last access time (older files do not have it)
+        if (codec.hasMoreFields()) {
+            member.setLastAccess(codec.nextLong());
+        }
+        return member;
+    }
+    
+    // Method to index the archive files of rarely used records
+    private void loadArchives() {
+        try {
+            // Build the ID -> offset index; records already loaded stay hot
+            int maxBookId = coldBooks.load(books.keySet());
+            int maxMemberId = coldMembers.load(members.keySet());
+            // Keep new IDs above archived ones too
+            if (maxBookId >= bookIdCounter) {
+                bookIdCounter = maxBookId + 1;
+            }
+            if (maxMemberId >= memberIdCounter) {
+                memberIdCounter = maxMemberId + 1;
+            }
+            if (coldBooks.size() > 0 || coldMembers.size() > 0) {
+                System.out.println("Archived records: " + coldBooks.size() + " books, "
+                        + coldMembers.size() + " members.\n");
+            }
+        } catch (IOException e) {
+            // Records in an unreadable archive cannot be found, but the file is kept as it is
+            System.out.println("Error reading archive files: " + e.getMessage() + "\n");
+        }
+        // Warn about damaged blocks (the next save compacts the archive without them)
+        for (ColdStore store : new ColdStore[] {coldBooks, coldMembers}) {
+            if (store.getDamage() != null) {
+                reportRecovery(store.getFile(), store.getCorruptCopy(), store.getDamage());
+            }
+        }
+    }
+    
+    // Method to load all data from files (called during initialization)
+    public void loadFromFile() {
+        System.out.println("Loading data from files...\n");
+        // Lazy start reads only the block indexes; records load when first used
+        if (LAZY_START && startLazyLoad()) {
+            System.out.println("Lazy start: records will be loaded on first use.\n");
+            return;
+        }
+        // Load books first
+        loadBooksFromFile();
+        // Then load members
+        loadMembersFromFile();
+        // Index archived records last so hot copies win
+        ensureArchivesLoaded();
+    }
+    
+    // Method to load the recommendation model the first time it is needed
+    // The saved model is read first, then the loans logged since it was saved
+    private void ensureRecommenderLoaded() {
+        if (recommenderLoaded) {
+            return;
+        }
+        recommenderLoaded = true;
+        File file = new File(RECOMMENDATIONS_FILE);
+        if (!file.exists()) {
+            // No saved model yet (new library or older version): start from current loans
+            // These already include every logged loan, so the log is not replayed
+            ensureHydrated();
+            seedRecommendations();
+            return;
+        }
+        readRecommendations(file);
+        replayLoans();
+    }
+    
+    // Method to read the saved recommendation model
+    private void readRecommendations(File file) {
+        try {
+            LostRecordReport report = new LostRecordReport(line -> {
+                try {
+                    recommender.readLine(codec, line);
+                } catch (NumberFormatException e) {
+                    System.out.println("Skipping invalid recommendation record: " + line);
+                }
+            });
+            File copy = SegmentReader.corruptCopyFor(file);
+            SegmentReader.read(file, copy, report);
+            reportRecovery(file, copy, report);
+        } catch (IOException e) {
+            // Keep the damaged file for repair instead of overwriting it on the next save
+            recommenderLoadFailed = true;
+            System.out.println("Error reading recommendations: " + e.getMessage());
+            System.out.println("Recommendations cover this session only until the file is repaired.\n");
+        }
+    }
+    
+    // Method to add the logged loans (and loans not logged yet) to the model
+    private void replayLoans() {
+        File log = new File(LOAN_LOG_FILE);
+        if (log.exists()) {
+            try {
+                replayLoans(new String(Files.readAllBytes(log.toPath()), StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                System.out.println("Error reading loan log: " + e.getMessage() + "\n");
+            }
+        }
+        replayLoans(pendingLoans.toString());
+        recommenderChanged = true;
+    }
+    
+    // Method to add each complete "memberId|bookId" line to the model
+    // A last line without its newline was cut short by a crash while logging and is left out
+    private void replayLoans(String text) {
+        int start = 0;
+        int end;
+        while ((end = text.indexOf('\n', start)) >= 0) {
+            replayLoan(text.substring(start, end));
+            start = end + 1;
+        }
+    }
+    
+    // Method to add one loan line to the model
+    private void replayLoan(String line) {
+        try {
+            codec.reset(line);
+            int memberId = codec.nextInt();
+            int bookId = codec.nextInt();
+            recommender.recordLoan(memberId, bookId);
+        } catch (NumberFormatException e) {
+            // A damaged line; the loan is left out
+        }
+    }
+    
+    // Method to note a loan for the recommendations
+    // The loan is logged on the next save; the model itself is only updated if it is
+    // already loaded, so issuing a book never has to read the whole model
+    private void recordLoan(int memberId, int bookId) {
+        pendingLoans.append(memberId).append('|').append(bookId).append('\n');
+        if (recommenderLoaded) {
+            recommender.recordLoan(memberId, bookId);
+            recommenderChanged = true;
+        }
+    }
+    
+    // Method to add the books members currently hold to the recommendation model
+    private void seedRecommendations() {
+        for (Member member : members.values()) {
+            for (int bookId : member.getIssuedBooks()) {
+                recommender.recordLoan(member.getMemberId(), bookId);
+            }
+        }
+        recommenderChanged = true;
+    }
+    
+    // Method to build the archive indexes the first time they are needed
+    private void ensureArchivesLoaded() {
+        if (!archivesLoaded) {
+            archivesLoaded = true;
+            loadArchives();
+        }
+    }
+    
+    // ===== LAZY START =====
+    // Method to start with only the block indexes in memory
+    // Returns false if an index is missing or out of date (a full load is done instead)
+    private boolean startLazyLoad() {
+        final File booksFile = new File(BOOKS_FILE);
+        final File membersFile = new File(MEMBERS_FILE);
+        SegmentIndex bookIndex = SegmentIndex.load(new File(BOOKS_INDEX_FILE), booksFile);
+        SegmentIndex memberIndex = SegmentIndex.load(new File(MEMBERS_INDEX_FILE), membersFile);
+        if (bookIndex == null || memberIndex == null) {
+            return false;
+        }
+        lazyBooks = bookIndex;
+        lazyMembers = memberIndex;
+        // The indexes remember the ID counters, including IDs of archived records
+        bookIdCounter = Math.max(bookIdCounter, bookIndex.getNextId());
+        memberIdCounter = Math.max(memberIdCounter, memberIndex.getNextId());
+        
+        // Read everything in the background so scans do not have to start from scratch
+        hydration = new FutureTask<>(() -> readAllRecords(booksFile, membersFile));
+        Thread thread = new Thread(hydration, "library-loader");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+    
+    // Method run by the background task to read every book and member
+    // Uses its own codec and maps, so it shares no state with the main thread
+    private static LoadedRecords readAllRecords(File booksFile, File membersFile) throws IOException {
+        final RecordCodec codec = new RecordCodec();
+        final LoadedRecords loaded = new LoadedRecords();
+        long damagedBooks = SegmentReader.read(booksFile, null, line -> {
+            try {
+                Book book = parseBook(codec, line);
+                loaded.books.put(book.getBookId(), book);
+            } catch (NumberFormatException e) {
+                System.out.println("Skipping invalid book record: " + line);
+            }
+        });
+        long damagedMembers = SegmentReader.read(membersFile, null, line -> {
+            try {
+                Member member = parseMember(codec, line);
+                loaded.members.put(member.getMemberId(), member);
+            } catch (NumberFormatException e) {
+                System.out.println("Skipping invalid member record: " + line);
+            }
+        });
+        // Records after a damaged block are missing, so saving would lose them
+        requireUndamaged(booksFile, damagedBooks);
+        requireUndamaged(membersFile, damagedMembers);
+        return loaded;
+    }
+    
+    // Fail if a data file has damaged blocks (lazy start does not repair files)
+    private static void requireUndamaged(File file, long damagedBytes) throws IOException {
+        if (damagedBytes > 0) {
+            throw new IOException(file.getName() + " is damaged (" + damagedBytes
+                    + " bytes cannot be read). Restart without lazy start to recover what is left.");
+        }
+    }
+    
+    // Method to wait for the background read and merge it into the maps
+    // Records already loaded on demand are kept, since they may have changed
+    private void ensureHydrated() {
+        if (hydration == null) {
+            return;
+        }
+        try {
+            LoadedRecords loaded = hydration.get();
+            for (Map.Entry<Integer, Book> entry : loaded.books.entrySet()) {
+                books.putIfAbsent(entry.getKey(), entry.getValue());
+            }
+            for (Map.Entry<Integer, Member> entry : loaded.members.entrySet()) {
+                members.putIfAbsent(entry.getKey(), entry.getValue());
+            }
+            // Everything is in memory now, so the block indexes are no longer needed
+            lazyBooks = null;
+            lazyMembers = null;
+        } catch (InterruptedException | ExecutionException e) {
+            loadFailed = true;
+            System.out.println("Error loading records: " + e.getMessage() + "\n");
+            // Keep the block indexes, so records in intact blocks can still be found
+        }
+        hydration = null;
+        // Archived copies of records that turned out to be hot are stale
+        ensureArchivesLoaded();
+        coldBooks.forget(books.keySet());
+        coldMembers.forget(members.keySet());
+        if (coldBookCache != null) {
+            coldBookCache.keySet().removeAll(books.keySet());
+        }
+    }
+    
+    // Method to read the block that holds a book, if it has not been read yet
+    private void loadBookBlock(int bookId) {
+        int block = lazyBooks.blockFor(bookId);
+        if (block < 0 || lazyBooks.isLoaded(block)) {
+            return;
+        }
+        lazyBooks.markLoaded(block);
+        try {
+            SegmentReader.readBlock(new File(BOOKS_FILE), lazyBooks.offsetOf(block), line -> {
+                try {
+                    Book book = parseBook(codec, line);
+                    books.putIfAbsent(book.getBookId(), book);
+                } catch (NumberFormatException e) {
+                    System.out.println("Skipping invalid book record: " + line);
+                }
+            });
+        } catch (IOException e) {
+            // The block's records are missing, so the file must not be saved over
+            loadFailed = true;
+            System.out.println("Error reading books file: " + e.getMessage());
+        }
+    }
+    
+    // Method to read the block that holds a member, if it has not been read yet
+    private void loadMemberBlock(int memberId) {
+        int block = lazyMembers.blockFor(memberId);
+        if (block < 0 || lazyMembers.isLoaded(block)) {
+            return;
+        }
+        lazyMembers.markLoaded(block);
+        try {
+            SegmentReader.readBlock(new File(MEMBERS_FILE), lazyMembers.offsetOf(block), line -> {
+                try {
+                    Member member = parseMember(codec, line);
+                    members.putIfAbsent(member.getMemberId(), member);
+                } catch (NumberFormatException e) {
+                    System.out.println("Skipping invalid member record: " + line);
+                }
+            });
+        } catch (IOException e) {
+            loadFailed = true;
+            System.out.println("Error reading members file: " + e.getMessage());
+        }
+    }
+    
+    // ===== TIERED STORAGE =====
+    // Method to get a book by ID for a change, moving it back from the archive if needed
+    // Returns null if the book does not exist
+    private Book findBook(int bookId) {
+        return lookupBook(bookId, true);
+    }
+    
+    // Method to get a book by ID for display or checks; archived books stay archived
+    // Returns null if the book does not exist
+    private Book peekBook(int bookId) {
+        return lookupBook(bookId, false);
+    }
+    
+    // Method to look up a book in memory, in a lazy block or in the archive
+    private Book lookupBook(int bookId, boolean moveToMemory) {
+        Book book = books.get(bookId);
+        if (book == null && lazyBooks != null) {
+            // Lazy start: read the block that would hold the book
+            loadBookBlock(bookId);
+            book = books.get(bookId);
+        }
+        if (book != null) {
+            return book;
+        }
+        ensureArchivesLoaded();
+        if (!coldBooks.contains(bookId)) {
+            return null;
+        }
+        try {
+            // Scans may already have the archived book in memory
+            Book cached = coldBookCache == null ? null : coldBookCache.get(bookId);
+            if (!moveToMemory) {
+                return cached != null ? cached : parseBook(codec, coldBooks.read(bookId));
+            }
+            // Move the archived book back into memory; it counts as used again,
+            // so the next save does not archive it straight away
+            if (cached != null) {
+                coldBooks.forget(Collections.singleton(bookId));
+                coldBookCache.remove(bookId);
+                book = cached;
+            } else {
+                book = parseBook(codec, coldBooks.take(bookId));
+            }
+            book.touch();
+            books.put(bookId, book);
+            return book;
+        } catch (IOException | NumberFormatException e) {
+            System.out.println("Error reading archived book " + bookId + ": " + e.getMessage());
+            return null;
+        }
+    }
+    
+    // Method to get a member by ID for a change, moving it back from the archive if needed
+    // Returns null if the member does not exist
+    private Member findMember(int memberId) {
+        return lookupMember(memberId, true);
+    }
+    
+    // Method to get a member by ID for checks; archived members stay archived
+    // Returns null if the member does not exist
+    private Member peekMember(int memberId) {
+        return lookupMember(memberId, false);
+    }
+    
+    // Method to look up a member in memory, in a lazy block or in the archive
+    private Member lookupMember(int memberId, boolean moveToMemory) {
+        Member member = members.get(memberId);
+        if (member == null && lazyMembers != null) {
+            // Lazy start: read the block that would hold the member
+            loadMemberBlock(memberId);
+            member = members.get(memberId);
+        }
+        if (member != null) {
+            return member;
+        }
+        ensureArchivesLoaded();
+        if (!coldMembers.contains(memberId)) {
+            return null;
+        }
+        try {
+            if (!moveToMemory) {
+                return parseMember(codec, coldMembers.read(memberId));
+            }
+            // Move the archived member back into memory and mark it as active
+            member = parseMember(codec, coldMembers.take(memberId));
+            member.touch();
+            members.put(memberId, member);
+            return member;
+        } catch (IOException | NumberFormatException e) {
+            System.out.println("Error reading archived member " + memberId + ": " + e.getMessage());
+            return null;
+        }
+    }
+    
+    // Method to list every book, including archived ones
+    private List<Book> allBooks() {
+        // Scans need every record in memory
+        ensureHydrated();
+        Collection<Book> archived = archivedBooks();
+        List<Book> result = new ArrayList<>(books.size() + archived.size());
+        result.addAll(books.values());
+        result.addAll(archived);
+        return result;
+    }
+    
+    // Method to get the archived books, reading them once the first time a scan needs them
+    // Author and category names repeat a lot, so each distinct name is kept only once
+    private Collection<Book> archivedBooks() {
+        if (coldBookCache != null) {
+            return coldBookCache.values();
+        }
+        ensureArchivesLoaded();
+        final Map<Integer, Book> cache = new HashMap<>(coldBooks.size() * 2);
+        final Map<String, String> names = new HashMap<>();
+        try {
+            coldBooks.forEachRecord(line -> {
+                try {
+                    Book book = parseBook(codec, line);
+                    Book shared = new Book(book.getBookId(), book.getTitle(),
+                            names.computeIfAbsent(book.getAuthor(), name -> name),
+                            names.computeIfAbsent(book.getCategory(), name -> name));
+                    shared.setLastAccess(book.getLastAccess());
+                    cache.put(shared.getBookId(), shared);
+                } catch (NumberFormatException e) {
+                    System.out.println("Skipping invalid archived book record: " + line);
+                }
+            });
+        } catch (IOException e) {
+            // Use what could be read this time, and read the archive again next time
+            System.out.println("Error reading archived books: " + e.getMessage());
+            return cache.values();
+        }
+        coldBookCache = cache;
+        return cache.values();
+    }
+    
+    // Method to move records that have been idle too long into the archive files
+    private void archiveIdleRecords() {
+        if (ARCHIVE_AFTER_DAYS <= 0) {
+            return; // Archiving disabled
+        }
+        ensureArchivesLoaded();
+        long cutoff = System.currentTimeMillis() - ARCHIVE_AFTER_DAYS * 24L * 60 * 60 * 1000;
+        Map<Integer, String> idleBooks = new LinkedHashMap<>();
+        Map<Integer, String> idleMembers = new LinkedHashMap<>();
+        try {
+            // Books that are not issued and not used since the cutoff
+            for (Book book : books.values()) {
+                if (!book.isIssued() && book.getLastAccess() < cutoff) {
+                    idleBooks.put(book.getBookId(), encode(book));
+                }
+            }
+            // Members with no issued books and no activity since the cutoff
+            for (Member member : members.values()) {
+                if (member.getIssuedBooks().isEmpty() && member.getLastAccess() < cutoff) {
+                    idleMembers.put(member.getMemberId(), encode(member));
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Error archiving records: " + e.getMessage());
+            return;
+        }
+        // Books going to the archive, kept for scans that have already read it
+        List<Book> archivedNow = new ArrayList<>();
+        if (coldBookCache != null) {
+            for (int bookId : idleBooks.keySet()) {
+                archivedNow.add(books.get(bookId));
+            }
+        }
+        if (archiveRecords(coldBooks, idleBooks, books.keySet())) {
+            for (Book book : archivedNow) {
+                coldBookCache.put(book.getBookId(), book);
+            }
+        }
+        archiveRecords(coldMembers, idleMembers, members.keySet());
+    }
+    
+    // Method to append idle records to an archive, then drop them from memory
+    // If the append fails, the records stay in memory and are saved as usual
+    // Returns true if the records were archived
+    private boolean archiveRecords(ColdStore store, Map<Integer, String> idle, Set<Integer> hotIds) {
+        try {
+            store.appendAll(idle);
+        } catch (IOException e) {
+            System.out.println("Error archiving records: " + e.getMessage());
+            return false;
+        }
+        // The records are synced to the archive, so removing them loses nothing
+        hotIds.removeAll(idle.keySet());
+        try {
+            store.compactIfNeeded();
+        } catch (IOException e) {
+            // The old archive file is still intact, so compaction can wait for the next save
+            System.out.println("Error compacting archive: " + e.getMessage());
+        }
+        return true;
+    }
+    
+    // Encode a book into a single line (reuses one buffer)
+    private String encode(Book book) throws IOException {
+        recordBuffer.getBuffer().setLength(0);
+        codec.writeBook(book, recordBuffer);
+        return recordBuffer.toString();
+    }
+    
+    // Encode a member into a single line (reuses one buffer)
+    private String encode(Member member) throws IOException {
+        recordBuffer.getBuffer().setLength(0);
+        codec.writeMember(member, recordBuffer);
+        return recordBuffer.toString();
+    }
+    
+    // ===== FILE HANDLING - SAVE DATA =====
+    // Method to save all books to file
+    // Returns true if the file was written
+    private boolean saveBooksToFile() {
+        // SegmentWriter compresses records into checksummed blocks in a temporary file
+        try (SegmentWriter writer = new SegmentWriter(new File(BOOKS_FILE))) {
+            // Write books in ID order so the block index can find them
+            for (int bookId : sortedIds(books.keySet())) {
+                writer.beginRecord(bookId);
+                // Encode the book straight into the writer (record ends with a newline)
+                codec.writeBook(books.get(bookId), writer);
+            }
+            // Replace the old file only once everything is on disk
+            writer.commit();
+            // Save the block index used by lazy start
+            writer.writeIndex(new File(BOOKS_INDEX_FILE), bookIdCounter);
+            return true;
             
-            // Close BufferedReader (also closes underlying FileReader)
-            br.close();
-            System.out.println("Books loaded successfully.\n");
-            
-        } catch (FileNotFoundException e) {
-            // Handle case where file is not found
-            System.out.println("Books file not found: " + e.getMessage() + "\n");
         } catch (IOException e) {
-            // Handle input/output errors
-            System.out.println("Error reading books file: " + e.getMessage() + "\n");
-        } catch (Exception e) {
-            // Handle any other unexpected errors
-            System.out.println("Error loading books: " + e.getMessage() + "\n");
+            System.out.println("Error saving books: " + e.getMessage());
+            return false;
         }
     }
     
-    // Method to load members from file
-    private void loadMembersFromFile() {
-        try {
-            // Create File object for members file
-            File file = new File(MEMBERS_FILE);
-            // Check if file exists
-            if (!file.exists()) {
-                System.out.println("Members file not found. Starting with no members.\n");
-                return;
-            }
-            
-            // FileReader for character-based reading
-            FileReader fr = new FileReader(file);
-            // BufferedReader for efficient reading
-            BufferedReader br = new BufferedReader(fr);
-            String line;
-            
-            // Read each line from the file
-            while ((line = br.readLine()) != null) {
-                // Skip empty lines
-                if (line.trim().isEmpty()) {
-                    continue;
-                }
-                
-                try {
-                    // Split line by "|" to get member details
-                    String[] parts = line.split("\\|");
-                    
-                    // Validate we have minimum required parts
-                    if (parts.length < 3) {
-                        continue;
-                    }
-                    
-                    // Extract member details
-                    int memberId = Integer.parseInt(parts[0]);
-                    String name = parts[1];
-                    String email = parts[2];
-                    
-                    // Create new Member object
-                    Member member = new Member(memberId, name, email);
-                    
-                    // If there are issued books data (parts[3] exists)
-                    if (parts.length > 3 && !parts[3].isEmpty()) {
-                        // Split issued book IDs by comma and add each to member's list
-                        String[] bookIds = parts[3].split(",");
-                        for (String bookId : bookIds) {
-                            try {
-                                // Add each book ID to member's issued books list
-                                member.addIssuedBook(Integer.parseInt(bookId));
-                            } catch (NumberFormatException e) {
-                                // Skip invalid book IDs
-                                System.out.println("Skipping invalid book ID: " + bookId);
-                            }
-                        }
-                    }
-                    
-                    // Store member in map using member ID as key
-                    members.put(memberId, member);
-                    // Update member ID counter
-                    if (memberId >= memberIdCounter) {
-                        memberIdCounter = memberId + 1;
-                    }
-                } catch (NumberFormatException e) {
-                    // Skip lines with invalid member data
-                    System.out.println("Skipping invalid member record: " + line);
-                }
+    // Method to save all members to file
+    // Returns true if the file was written
+    private boolean saveMembersToFile() {
+        // Write members the same way as books
+        try (SegmentWriter writer = new SegmentWriter(new File(MEMBERS_FILE))) {
+            // Write members in ID order so the block index can find them
+            for (int memberId : sortedIds(members.keySet())) {
+                writer.beginRecord(memberId);
+                // Encode the member straight into the writer
+                codec.writeMember(members.get(memberId), writer);
             }
+            writer.commit();
+            writer.writeIndex(new File(MEMBERS_INDEX_FILE), memberIdCounter);
+            return true;
             
-            // Close BufferedReader
-            br.close();
-            System.out.println("Members loaded successfully.\n");
-            
-        } catch (FileNotFoundException e) {
-            System.out.println("Members file not found: " + e.getMessage() + "\n");
         } catch (IOException e) {
-            System.out.println("Error reading members file: " + e.getMessage() + "\n");
-        } catch (Exception e) {
-            System.out.println("Error loading members: " + e.getMessage() + "\n");
+            System.out.println("Error saving members: " + e.getMessage());
+            return false;
         }
     }
     
-    // Method to load all data from files (called during initialization)
-    public void loadFromFile() {
-        System.out.println("Loading data from files...\n");
-        // Load books first
-        loadBooksFromFile();
-        // Then load members
-        loadMembersFromFile();
+    // Method to read every lazy block that holds a record in memory
+    // Saving rewrites those blocks from memory, so the rest of their records must be
+    // loaded too (new records and records moved back from the archive can fall into
+    // a block that was never read)
+    private void loadBlocksOfLoadedRecords() {
+        for (int bookId : new ArrayList<>(books.keySet())) {
+            loadBookBlock(bookId);
+        }
+        for (int memberId : new ArrayList<>(members.keySet())) {
+            loadMemberBlock(memberId);
+        }
     }
     
-    // ===== FILE HANDLING - SAVE DATA =====
-    // Method to save all books to file
-    private void saveBooksToFile() {
+    // Method to save books after a lazy start, without reading the blocks never used
+    // Returns true if the file was written
+    private boolean saveBookBlocks() {
         try {
-            // FileWriter writes characters to file
-            FileWriter fw = new FileWriter(BOOKS_FILE);
-            // BufferedWriter wraps FileWriter for faster writing
-            BufferedWriter bw = new BufferedWriter(fw);
-            
-            // Iterate through all books in the map
-            for (Book book : books.values()) {
-                // Convert each book to string format and write to file
-                bw.write(book.toString());
-                // Write newline after each book
-                bw.newLine();
-            }
-            
-            // Flush buffer to ensure all data is written
-            bw.flush();
-            // Close BufferedWriter
-            bw.close();
+            lazyBooks = saveBlocks(new File(BOOKS_FILE), new File(BOOKS_INDEX_FILE), lazyBooks,
+                    books.keySet(), (id, out) -> codec.writeBook(books.get(id), out), bookIdCounter);
+            return true;
             
         } catch (IOException e) {
             System.out.println("Error saving books: " + e.getMessage());
+            return false;
         }
     }
     
-    // Method to save all members to file
-    private void saveMembersToFile() {
+    // Method to save members after a lazy start, the same way as books
+    // Returns true if the file was written
+    private boolean saveMemberBlocks() {
         try {
-            // Create FileWriter for members file
-            FileWriter fw = new FileWriter(MEMBERS_FILE);
-            // Wrap with BufferedWriter for efficiency
-            BufferedWriter bw = new BufferedWriter(fw);
+            lazyMembers = saveBlocks(new File(MEMBERS_FILE), new File(MEMBERS_INDEX_FILE), lazyMembers,
+                    members.keySet(), (id, out) -> codec.writeMember(members.get(id), out), memberIdCounter);
+            return true;
             
-            // Iterate through all members in the map
-            for (Member member : members.values()) {
-                // Convert member to string and write to file
-                bw.write(member.toString());
-                // Write newline
-                bw.newLine();
+        } catch (IOException e) {
+            System.out.println("Error saving members: " + e.getMessage());
+            return false;
+        }
+    }
+    
+    // Method to write a data file from its old version and the records in memory
+    // Blocks that were never read are copied unchanged (after checking their checksum);
+    // blocks that were read are written again from memory, so changed and new records
+    // are saved and archived ones left out. Every record in memory must belong to a read
+    // block (see loadBlocksOfLoadedRecords).
+    // Returns the block index of the new file, with the rewritten blocks marked as read
+    private SegmentIndex saveBlocks(File file, File indexFile, SegmentIndex index, Set<Integer> ids,
+            RecordEncoder encoder, int nextId) throws IOException {
+        int[] sorted = sortedIds(ids);
+        int next = 0;
+        try (SegmentWriter writer = new SegmentWriter(file)) {
+            try (RandomAccessFile old = new RandomAccessFile(file, "r")) {
+                // Block -1 stands for IDs below the first block
+                for (int block = -1; block < index.blockCount(); block++) {
+                    if (block >= 0 && !index.isLoaded(block)) {
+                        byte[] stored = SegmentReader.readStoredBlock(old, index.offsetOf(block));
+                        if (stored == null) {
+                            // The block's records cannot be copied, so the file must not be saved over
+                            loadFailed = true;
+                            throw new IOException(file.getName() + " has a damaged block at offset " + index.offsetOf(block));
+                        }
+                        writer.copyBlock(index.firstIdOf(block), stored);
+                        continue;
+                    }
+                    // Write the records in memory that belong to this block, in ID order
+                    int end = block + 1 < index.blockCount() ? index.firstIdOf(block + 1) : Integer.MAX_VALUE;
+                    while (next < sorted.length && sorted[next] < end) {
+                        writer.beginRecord(sorted[next]);
+                        encoder.write(sorted[next], writer);
+                        next++;
+                    }
+                }
             }
+            writer.commit();
+            writer.writeIndex(indexFile, nextId);
             
-            // Flush to write all data
-            bw.flush();
-            // Close writer
-            bw.close();
-            
+            // Blocks written from memory hold only records that are already loaded
+            SegmentIndex saved = writer.toIndex(nextId);
+            for (int id : sorted) {
+                saved.markLoaded(saved.blockFor(id));
+            }
+            return saved;
+        }
+    }
+    
+    // Method to save new loans to the loan log (a small append, whatever the model size)
+    // With compact set (exit and checkpoints), the log is folded into the saved model
+    // when the model is loaded anyway or the log has grown large
+    // Returns true if everything needed was written
+    private boolean saveRecommendations(boolean compact) {
+        File log = new File(LOAN_LOG_FILE);
+        if (pendingLoans.length() > 0) {
+            try (FileOutputStream out = new FileOutputStream(log, true)) {
+                out.write(pendingLoans.toString().getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                out.getFD().sync();
+                pendingLoans.setLength(0);
+            } catch (IOException e) {
+                System.out.println("Error saving loan log: " + e.getMessage());
+                return false;
+            }
+        }
+        if (!compact || (!recommenderLoaded && log.length() < LOAN_LOG_COMPACT_BYTES)) {
+            return true;
+        }
+        ensureRecommenderLoaded();
+        // A model that could not be read is not saved, so its file is not replaced
+        if (!recommenderChanged || recommenderLoadFailed) {
+            return true;
+        }
+        try (SegmentWriter writer = new SegmentWriter(new File(RECOMMENDATIONS_FILE))) {
+            recommender.write(codec, writer);
+            writer.commit();
         } catch (IOException e) {
-            System.out.println("Error saving members: " + e.getMessage());
+            System.out.println("Error saving recommendations: " + e.getMessage());
+            return false;
         }
+        // The saved model now includes every logged loan
+        recommenderChanged = false;
+        if (log.exists() && !log.delete()) {
+            System.out.println("Error clearing loan log " + log.getName());
+            return false;
+        }
+        return true;
+    }
+    
+    // Method to get IDs in ascending order
+    private static int[] sortedIds(Set<Integer> ids) {
+        int[] sorted = new int[ids.size()];
+        int i = 0;
+        for (int id : ids) {
+            sorted[i++] = id;
+        }
+        if (sorted.length >= PARALLEL_THRESHOLD) {
+            Arrays.parallelSort(sorted);
+        } else {
+            Arrays.sort(sorted);
+        }
+        return sorted;
+    }
+    
+    // Method to save all data to files (at exit and checkpoints)
+    // Returns true if every file was written
+    public boolean saveToFile() {
+        return saveToFile(true);
     }
     
     // Method to save all data to files
-    public void saveToFile() {
+    // compactRecommendations is false for the saves after each change, which only
+    // append new loans to the loan log
+    // Returns true if every file was written
+    private boolean saveToFile(boolean compactRecommendations) {
+        // After a lazy start only the blocks that were read are written again, so the save
+        // does not wait for the background read of every record
+        if (lazyBooks != null) {
+            loadBlocksOfLoadedRecords();
+        }
+        if (loadFailed) {
+            System.out.println("Not saving: some records could not be loaded and would be lost.");
+            System.out.println("Repair or restore the data files, then restart the program.\n");
+            return false;
+        }
+        // Move idle records to the archive first, so only active records are rewritten
+        archiveIdleRecords();
         // Save books to file
-        saveBooksToFile();
+        boolean booksSaved = lazyBooks != null ? saveBookBlocks() : saveBooksToFile();
         // Save members to file
-        saveMembersToFile();
-        System.out.println("Data saved successfully.\n");
+        boolean membersSaved = lazyMembers != null ? saveMemberBlocks() : saveMembersToFile();
+        // Save new loans for the recommendation model, so it survives a restart
+        boolean recommendationsSaved = saveRecommendations(compactRecommendations);
+        if (booksSaved && membersSaved && recommendationsSaved) {
+            System.out.println("Data saved successfully.\n");
+        }
+        return booksSaved && membersSaved && recommendationsSaved;
+    }
+    
+    // Method to save after a change, unless saves are deferred (batch mode)
+    private void persistChanges() {
+        if (!deferSaves) {
+            saveToFile(false);
+        }
     }
     
     // ===== LIBRARY OPERATIONS =====
@@ -481,14 +2924,10 @@ public class LibraryManager {
             }
             
             // Create new book with auto-generated ID
-            Book newBook = new Book(bookIdCounter, title, author, category);
-            // Store book in map
-            books.put(bookIdCounter, newBook);
-            System.out.println("Book added successfully with ID: " + bookIdCounter + "\n");
-            // Increment ID for next book
-            bookIdCounter++;
+            int bookId = createBook(title, author, category);
+            System.out.println("Book added successfully with ID: " + bookId + "\n");
             // Save updated data to file
-            saveToFile();
+            persistChanges();
             
         } catch (Exception e) {
             System.out.println("Error adding book: " + e.getMessage() + "\n");
@@ -517,14 +2956,10 @@ public class LibraryManager {
             }
             
             // Create new member with auto-generated ID
-            Member newMember = new Member(memberIdCounter, name, email);
-            // Store member in map
-            members.put(memberIdCounter, newMember);
-            System.out.println("Member added successfully with ID: " + memberIdCounter + "\n");
-            // Increment ID for next member
-            memberIdCounter++;
+            int memberId = createMember(name, email);
+            System.out.println("Member added successfully with ID: " + memberId + "\n");
             // Save updated data to file
-            saveToFile();
+            persistChanges();
             
         } catch (Exception e) {
             System.out.println("Error adding member: " + e.getMessage() + "\n");
@@ -542,33 +2977,15 @@ public class LibraryManager {
             int memberId = sc.nextInt();
             sc.nextLine(); // Clear input buffer
             
-            // Check if book exists in map
-            if (!books.containsKey(bookId)) {
-                System.out.println("Book not found!\n");
-                return;
-            }
-            
-            // Check if member exists in map
-            if (!members.containsKey(memberId)) {
-                System.out.println("Member not found!\n");
-                return;
-            }
-            
-            // Get book from map
-            Book book = books.get(bookId);
-            // Check if book is already issued
-            if (book.isIssued()) {
-                System.out.println("Book is already issued!\n");
+            // Issue the book, or show why it could not be issued
+            String error = issueBook(bookId, memberId);
+            if (error != null) {
+                System.out.println(error + "\n");
                 return;
             }
-            
-            // Mark book as issued
-            book.markAsIssued();
-            // Add book ID to member's issued books list
-            members.get(memberId).addIssuedBook(bookId);
             System.out.println("Book issued successfully!\n");
             // Save updated data to file
-            saveToFile();
+            persistChanges();
             
         } catch (InputMismatchException e) {
             System.out.println("Please enter valid numbers!\n");
@@ -590,25 +3007,15 @@ public class LibraryManager {
             int memberId = sc.nextInt();
             sc.nextLine(); // Clear buffer
             
-            // Check if book exists
-            if (!books.containsKey(bookId)) {
-                System.out.println("Book not found!\n");
-                return;
-            }
-            
-            // Check if member exists
-            if (!members.containsKey(memberId)) {
-                System.out.println("Member not found!\n");
+            // Return the book, or show why it could not be returned
+            String error = returnBook(bookId, memberId);
+            if (error != null) {
+                System.out.println(error + "\n");
                 return;
             }
-            
-            // Get book and mark as returned
-            books.get(bookId).markAsReturned();
-            // Remove book ID from member's issued list
-            members.get(memberId).returnIssuedBook(bookId);
             System.out.println("Book returned successfully!\n");
             // Save updated data
-            saveToFile();
+            persistChanges();
             
         } catch (InputMismatchException e) {
             System.out.println("Please enter valid numbers!\n");
@@ -619,6 +3026,137 @@ public class LibraryManager {
         }
     }
     
+    // Method to create a book with the next free ID
+    // Returns the new book ID
+    private int createBook(String title, String author, String category) {
+        int bookId = bookIdCounter;
+        // Store book in map
+        books.put(bookId, new Book(bookId, title, author, category));
+        // Increment ID for next book
+        bookIdCounter++;
+        return bookId;
+    }
+    
+    // Method to create a member with the next free ID
+    // Returns the new member ID
+    private int createMember(String name, String email) {
+        int memberId = memberIdCounter;
+        // Store member in map
+        members.put(memberId, new Member(memberId, name, email));
+        // Increment ID for next member
+        memberIdCounter++;
+        return memberId;
+    }
+    
+    // Method to issue a book to a member
+    // Returns null on success, or a message explaining why it failed
+    private String issueBook(int bookId, int memberId) {
+        // Check the book exists (archived records are only peeked at here,
+        // so a failed request does not pull them back into memory)
+        Book book = peekBook(bookId);
+        if (book == null) {
+            return "Book not found!";
+        }
+        
+        // Check the member exists
+        if (peekMember(memberId) == null) {
+            return "Member not found!";
+        }
+        
+        // Check if book is already issued
+        if (book.isIssued()) {
+            return "Book is already issued!";
+        }
+        
+        // The loan goes ahead, so bring both records back into memory
+        book = findBook(bookId);
+        Member member = findMember(memberId);
+        // Mark book as issued
+        book.markAsIssued();
+        // Add book ID to member's issued books list
+        member.addIssuedBook(bookId);
+        // Both records were just used, so keep them out of the archive
+        book.touch();
+        member.touch();
+        // Update the co-borrowing counts for recommendations
+        recordLoan(memberId, bookId);
+        return null;
+    }
+    
+    // Method to return a book from a member
+    // Returns null on success, or a message explaining why it failed
+    private String returnBook(int bookId, int memberId) {
+        // Check if book exists (without pulling it back from the archive)
+        if (peekBook(bookId) == null) {
+            return "Book not found!";
+        }
+        
+        // Check if member exists
+        if (peekMember(memberId) == null) {
+            return "Member not found!";
+        }
+        
+        // Bring both records into memory to change them
+        Book book = findBook(bookId);
+        Member member = findMember(memberId);
+        // Mark book as returned
+        book.markAsReturned();
+        // Remove book ID from member's issued list
+        member.returnIssuedBook(bookId);
+        // Record the activity on both records
+        book.touch();
+        member.touch();
+        return null;
+    }
+    
+    // Method to show books often borrowed together with a given book
+    public void recommendBooks() {
+        try {
+            System.out.print("Enter Book ID: ");
+            // Read book ID
+            int bookId = sc.nextInt();
+            sc.nextLine(); // Clear buffer
+            
+            // Check if book exists
+            if (peekBook(bookId) == null) {
+                System.out.println("Book not found!\n");
+                return;
+            }
+            
+            List<Book> results = recommendations(bookId, TOP_RECOMMENDATIONS);
+            if (results.isEmpty()) {
+                System.out.println("No recommendations yet for this book.\n");
+            } else {
+                System.out.println("Patrons who borrowed this also borrowed:\n");
+                for (Book book : results) {
+                    book.displayBookDetails();
+                }
+            }
+            
+        } catch (InputMismatchException e) {
+            System.out.println("Please enter a valid number!\n");
+            sc.nextLine();
+        } catch (Exception e) {
+            System.out.println("Error recommending books: " + e.getMessage() + "\n");
+            sc.nextLine();
+        }
+    }
+    
+    // Method to get up to k books most often borrowed with the given book
+    private List<Book> recommendations(int bookId, int k) {
+        ensureRecommenderLoaded();
+        List<Book> results = new ArrayList<>();
+        for (int otherId : recommender.recommend(bookId, k)) {
+            // Only reading, so archived books stay in the archive
+            Book book = peekBook(otherId);
+            // Books that no longer exist are left out
+            if (book != null) {
+                results.add(book);
+            }
+        }
+        return results;
+    }
+    
     // Method to search books by various criteria
     public void searchBooks() {
         try {
@@ -631,42 +3169,11 @@ public class LibraryManager {
             // Read search keyword
             String searchTerm = sc.nextLine().trim().toLowerCase();
             
-            // List to store search results
-            List<Book> results = new ArrayList<>();
-            
-            // Search based on user choice
-            switch (choice) {
-                case 1: // Search by title
-                    // Iterate through all books
-                    for (Book book : books.values()) {
-                        // Check if title contains search term (case-insensitive)
-                        if (book.getTitle().toLowerCase().contains(searchTerm)) {
-                            results.add(book); // Add to results
-                        }
-                    }
-                    break;
-                    
-                case 2: // Search by author
-                    for (Book book : books.values()) {
-                        // Check if author contains search term
-                        if (book.getAuthor().toLowerCase().contains(searchTerm)) {
-                            results.add(book);
-                        }
-                    }
-                    break;
-                    
-                case 3: // Search by category
-                    for (Book book : books.values()) {
-                        // Check if category contains search term
-                        if (book.getCategory().toLowerCase().contains(searchTerm)) {
-                            results.add(book);
-                        }
-                    }
-                    break;
-                    
-                default:
-                    System.out.println("Invalid choice!\n");
-                    return;
+            // Search every book, including archived ones
+            List<Book> results = findBooks(choice, searchTerm);
+            if (results == null) {
+                System.out.println("Invalid choice!\n");
+                return;
             }
             
             // Display search results
@@ -696,38 +3203,19 @@ public class LibraryManager {
             int choice = sc.nextInt();
             sc.nextLine(); // Clear buffer
             
-            // Create list from books map values
-            List<Book> bookList = new ArrayList<>(books.values());
+            // Sort based on user choice
+            List<Book> bookList = sortedBooks(choice);
+            if (bookList == null) {
+                System.out.println("Invalid choice!\n");
+                return;
+            }
             
             // Check if there are books to sort
             if (bookList.isEmpty()) {
                 System.out.println("No books available to sort.\n");
                 return;
             }
-            
-            // Sort based on user choice
-            switch (choice) {
-                case 1: // Sort by title using Comparable
-                    // Collections.sort uses compareTo method defined in Book class
-                    Collections.sort(bookList);
-                    System.out.println("Books sorted by Title:\n");
-                    break;
-                    
-                case 2: // Sort by author using Comparator
-                    // Pass custom comparator to sort method
-                    Collections.sort(bookList, new BookAuthorComparator());
-                    System.out.println("Books sorted by Author:\n");
-                    break;
-                    
-                case 3: // Sort by category using Comparator
-                    Collections.sort(bookList, new BookCategoryComparator());
-                    System.out.println("Books sorted by Category:\n");
-                    break;
-                    
-                default:
-                    System.out.println("Invalid choice!\n");
-                    return;
-            }
+            System.out.println("Books sorted by " + FIELD_NAMES[choice - 1] + ":\n");
             
             // Display sorted books
             for (Book book : bookList) {
@@ -743,21 +3231,152 @@ public class LibraryManager {
         }
     }
     
+    // Method to find books whose title, author or category (field 1-3) contains a term
+    // Returns null if the field number is invalid
+    private List<Book> findBooks(int field, String searchTerm) {
+        searchTerm = searchTerm.toLowerCase();
+        // List to store search results
+        List<Book> results = new ArrayList<>();
+        // Search every book, including archived ones
+        List<Book> allBooks = allBooks();
+        
+        // Search based on the chosen field
+        switch (field) {
+            case 1: // Search by title
+                // Iterate through all books
+                for (Book book : allBooks) {
+                    // Check if title contains search term (case-insensitive)
+                    if (book.getTitle().toLowerCase().contains(searchTerm)) {
+                        results.add(book); // Add to results
+                    }
+                }
+                break;
+                
+            case 2: // Search by author
+                for (Book book : allBooks) {
+                    // Check if author contains search term
+                    if (book.getAuthor().toLowerCase().contains(searchTerm)) {
+                        results.add(book);
+                    }
+                }
+                break;
+                
+            case 3: // Search by category
+                for (Book book : allBooks) {
+                    // Check if category contains search term
+                    if (book.getCategory().toLowerCase().contains(searchTerm)) {
+                        results.add(book);
+                    }
+                }
+                break;
+                
+            default:
+                return null;
+        }
+        return results;
+    }
+    
+    // Method to list all books sorted by title, author or category (field 1-3)
+    // Returns null if the field number is invalid
+    private List<Book> sortedBooks(int field) {
+        switch (field) {
+            case 1: // Sort by title using Comparable
+                // Natural order uses compareTo method defined in Book class
+                return sortBookList(allBooks(), Comparator.naturalOrder());
+            case 2: // Sort by author using Comparator
+                return sortBookList(allBooks(), new BookAuthorComparator());
+            case 3: // Sort by category using Comparator
+                return sortBookList(allBooks(), new BookCategoryComparator());
+            default:
+                return null;
+        }
+    }
+    
+    // Method to copy and sort books (parallel sort for large catalogs)
+    private List<Book> sortBookList(Collection<Book> source, Comparator<Book> comparator) {
+        // Sort an array so large catalogs can use Arrays.parallelSort
+        Book[] array = source.toArray(new Book[0]);
+        if (array.length >= PARALLEL_THRESHOLD) {
+            // Fork/join merge sort across all available cores
+            Arrays.parallelSort(array, comparator);
+        } else {
+            // Small lists are faster to sort on one thread
+            Arrays.sort(array, comparator);
+        }
+        return Arrays.asList(array);
+    }
+    
+    // Method to stream a collection, in parallel once it is large enough
+    private static <T> Stream<T> streamOf(Collection<T> items) {
+        return items.size() >= PARALLEL_THRESHOLD ? items.parallelStream() : items.stream();
+    }
+    
     // Method to display statistics
     public void displayStatistics() {
-        System.out.println("===== Library Statistics =====");
-        System.out.println("Total Books: " + books.size());
+        PrintWriter out = new PrintWriter(System.out);
+        printStatistics(out);
+        out.flush();
+    }
+    
+    // Method to write statistics to the given output
+    private void printStatistics(PrintWriter out) {
+        out.println("===== Library Statistics =====");
+        // Statistics cover archived books too
+        List<Book> allBooks = allBooks();
+        out.println("Total Books: " + allBooks.size());
         // Count issued books
-        int issuedCount = 0;
-        for (Book book : books.values()) {
-            if (book.isIssued()) {
-                issuedCount++;
-            }
+        long issuedCount = streamOf(allBooks).filter(Book::isIssued).count();
+        out.println("Books Issued: " + issuedCount);
+        out.println("Books Available: " + (allBooks.size() - issuedCount));
+        out.println("Total Members: " + (members.size() + coldMembers.size()));
+        
+        // Group books by category (concurrent map so parallel streams merge cheaply)
+        Map<String, Long> perCategory = streamOf(allBooks)
+                .collect(Collectors.groupingByConcurrent(Book::getCategory, Collectors.counting()));
+        out.println("Books per Category:");
+        // List categories in the same locale-aware order used for sorting books
+        // Names the collator treats as equal (e.g. composed and decomposed accents)
+        // share one entry, so their counts are added instead of replaced
+        Map<String, Long> sortedCategories = new TreeMap<>(SortKeys::compareText);
+        for (Map.Entry<String, Long> entry : perCategory.entrySet()) {
+            sortedCategories.merge(entry.getKey(), entry.getValue(), Long::sum);
+        }
+        for (Map.Entry<String, Long> entry : sortedCategories.entrySet()) {
+            out.println("  " + entry.getKey() + ": " + entry.getValue());
+        }
+        
+        // Group issued books by author
+        Map<String, Long> issuedPerAuthor = streamOf(allBooks)
+                .filter(Book::isIssued)
+                .collect(Collectors.groupingByConcurrent(Book::getAuthor, Collectors.counting()));
+        out.println("Issued Books per Author:");
+        if (issuedPerAuthor.isEmpty()) {
+            out.println("  None");
+        }
+        Map<String, Long> sortedAuthors = new TreeMap<>(SortKeys::compareText);
+        for (Map.Entry<String, Long> entry : issuedPerAuthor.entrySet()) {
+            sortedAuthors.merge(entry.getKey(), entry.getValue(), Long::sum);
+        }
+        for (Map.Entry<String, Long> entry : sortedAuthors.entrySet()) {
+            out.println("  " + entry.getKey() + ": " + entry.getValue());
+        }
+        
+        // Members with the most books currently issued (archived members have none)
+        List<Member> topBorrowers = streamOf(members.values())
+                .filter(member -> !member.getIssuedBooks().isEmpty())
+                .sorted(Comparator.comparingInt((Member member) -> member.getIssuedBooks().size()).reversed()
+                        .thenComparingInt(Member::getMemberId))
+                .limit(TOP_BORROWERS)
+                .collect(Collectors.toList());
+        out.println("Top Borrowers:");
+        if (topBorrowers.isEmpty()) {
+            out.println("  None");
+        }
+        for (Member member : topBorrowers) {
+            out.println("  " + member.getName() + " (ID " + member.getMemberId() + "): "
+                    + member.getIssuedBooks().size());
         }
-        System.out.println("Books Issued: " + issuedCount);
-        System.out.println("Books Available: " + (books.size() - issuedCount));
-        System.out.println("Total Members: " + members.size());
-        System.out.println("---\n");
+        out.println("---\n");
     }
     
     // ===== MAIN MENU =====
@@ -777,7 +3396,8 @@ public class LibraryManager {
                 System.out.println("5. Search Books");
                 System.out.println("6. Sort Books");
                 System.out.println("7. View Statistics");
-                System.out.println("8. Exit");
+                System.out.println("8. Recommend Books");
+                System.out.println("9. Exit");
                 System.out.print("Enter your choice: ");
                 
                 choice = sc.nextInt();
@@ -807,6 +3427,9 @@ public class LibraryManager {
                         displayStatistics(); // Show statistics
                         break;
                     case 8:
+                        recommendBooks(); // Show co-borrowed books
+                        break;
+                    case 9:
                         // Save all data before exiting
                         saveToFile();
                         System.out.println("Thank you for using City Library Management System!");
@@ -830,8 +3453,207 @@ public class LibraryManager {
         }
     }
     
+    // ===== BATCH MODE =====
+    // Headless line protocol for scripts and load tests. One command per line;
+    // arguments are "|" separated and use the same escapes as the data files:
+    //   addbook <title>|<author>|<category>    -> OK <bookId>
+    //   addmember <name>|<email>               -> OK <memberId>
+    //   issue <bookId>|<memberId>              -> OK
+    //   return <bookId>|<memberId>             -> OK
+    //   search title|author|category|<term>    -> BOOK <record> lines, then OK <count>
+    //   sort title|author|category             -> BOOK <record> lines, then OK <count>
+    //   recommend <bookId>[|<count>]           -> BOOK <record> lines, then OK <count>
+    //   stats                                  -> statistics lines, then OK
+    //   checkpoint                             -> saves all data, then OK
+    //   quit                                   -> stops reading commands
+    // Blank lines and lines starting with "#" are ignored. A failed command prints
+    // "ERR <line number> <message>" and processing continues with the next line.
+    // Data is saved only at checkpoints and once at the end of the batch.
+    
+    // Exit status: every command succeeded
+    private static final int EXIT_OK = 0;
+    // Exit status: at least one command failed
+    private static final int EXIT_COMMAND_FAILED = 1;
+    // Exit status: bad arguments, unreadable input or data could not be saved
+    private static final int EXIT_FATAL = 2;
+    
+    // Method to run batch commands from a reader, writing responses to out
+    // Returns EXIT_OK or EXIT_COMMAND_FAILED
+    private int runCommands(BufferedReader in, PrintWriter out) throws IOException {
+        // Separate codec for command arguments (the main codec decodes archive records)
+        RecordCodec args = new RecordCodec();
+        int status = EXIT_OK;
+        int lineNumber = 0;
+        String line;
+        
+        while ((line = in.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            // Skip blank lines and comments
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            
+            // Split the command name from its arguments
+            int space = line.indexOf(' ');
+            String command = (space < 0 ? line : line.substring(0, space)).toLowerCase();
+            args.reset(space < 0 ? "" : line.substring(space + 1).trim());
+            if (command.equals("quit") || command.equals("exit")) {
+                break;
+            }
+            
+            String error;
+            try {
+                error = runCommand(command, args, out);
+            } catch (NumberFormatException e) {
+                error = "Invalid or missing argument";
+            }
+            
+            if (error == null) {
+                continue;
+            }
+            out.println("ERR " + lineNumber + " " + error);
+            status = EXIT_COMMAND_FAILED;
+        }
+        return status;
+    }
+    
+    // Method to run a single batch command
+    // Returns null on success, or an error message
+    private String runCommand(String command, RecordCodec args, PrintWriter out) throws IOException {
+        switch (command) {
+            case "addbook": {
+                String title = args.nextText().trim();
+                String author = args.nextText().trim();
+                String category = args.nextText().trim();
+                if (title.isEmpty() || author.isEmpty() || category.isEmpty()) {
+                    return "Title, author and category cannot be empty";
+                }
+                out.println("OK " + createBook(title, author, category));
+                return null;
+            }
+            case "addmember": {
+                String name = args.nextText().trim();
+                String email = args.nextText().trim();
+                if (name.isEmpty()) {
+                    return "Name cannot be empty";
+                }
+                if (!email.contains("@")) {
+                    return "Invalid email format";
+                }
+                out.println("OK " + createMember(name, email));
+                return null;
+            }
+            case "issue":
+            case "return": {
+                int bookId = args.nextInt();
+                int memberId = args.nextInt();
+                String error = command.equals("issue") ? issueBook(bookId, memberId) : returnBook(bookId, memberId);
+                if (error != null) {
+                    return error;
+                }
+                out.println("OK");
+                return null;
+            }
+            case "search":
+            case "sort": {
+                int field = fieldNumber(args.nextText());
+                List<Book> results = command.equals("search") ? findBooks(field, args.nextText()) : sortedBooks(field);
+                if (results == null) {
+                    return "Unknown field, use title, author or category";
+                }
+                // Books are printed in the file record format
+                for (Book book : results) {
+                    out.print("BOOK ");
+                    codec.writeBook(book, out);
+                }
+                out.println("OK " + results.size());
+                return null;
+            }
+            case "recommend": {
+                int bookId = args.nextInt();
+                int k = args.hasMoreFields() ? args.nextInt() : TOP_RECOMMENDATIONS;
+                if (peekBook(bookId) == null) {
+                    return "Book not found!";
+                }
+                List<Book> results = recommendations(bookId, Math.max(k, 0));
+                for (Book book : results) {
+                    out.print("BOOK ");
+                    codec.writeBook(book, out);
+                }
+                out.println("OK " + results.size());
+                return null;
+            }
+            case "stats":
+                printStatistics(out);
+                out.println("OK");
+                return null;
+            case "checkpoint":
+                if (!saveToFile()) {
+                    return "Could not save data";
+                }
+                out.println("OK");
+                // Make everything before the checkpoint visible to the caller
+                out.flush();
+                return null;
+            default:
+                return "Unknown command: " + command;
+        }
+    }
+    
+    // Convert a field name (title, author, category) to its menu number, or 0 if unknown
+    private static int fieldNumber(String name) {
+        for (int i = 0; i < FIELD_NAMES.length; i++) {
+            if (FIELD_NAMES[i].equalsIgnoreCase(name.trim())) {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+    
+    // Method to run batch mode: java LibraryManager --batch [commandFile|-]
+    // Returns the process exit status
+    private static int runBatch(String[] args) {
+        if (args.length > 2) {
+            System.err.println("Usage: java LibraryManager --batch [commandFile|-]");
+            return EXIT_FATAL;
+        }
+        // Stdout carries only protocol responses; status messages go to stderr
+        PrintStream stdout = System.out;
+        System.setOut(System.err);
+        // Responses are buffered and flushed at checkpoints and at the end
+        // Batch input and output are always UTF-8, whatever the platform default is
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(stdout, StandardCharsets.UTF_8), 1 << 16));
+        
+        try {
+            // Read commands from the given file, or from stdin
+            Reader source = (args.length < 2 || args[1].equals("-"))
+                    ? new InputStreamReader(System.in, StandardCharsets.UTF_8)
+                    : new InputStreamReader(new FileInputStream(args[1]), StandardCharsets.UTF_8);
+            try (BufferedReader in = new BufferedReader(source, 1 << 16)) {
+                LibraryManager manager = new LibraryManager();
+                // Save only at checkpoints and at the end of the batch
+                manager.deferSaves = true;
+                int status = manager.runCommands(in, out);
+                if (!manager.saveToFile()) {
+                    return EXIT_FATAL;
+                }
+                return status;
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading commands: " + e.getMessage());
+            return EXIT_FATAL;
+        } finally {
+            out.flush();
+        }
+    }
+    
     // Main method - entry point
     public static void main(String[] args) {
+        // Headless command mode for scripts: --batch [commandFile|-]
+        if (args.length > 0 && args[0].equals("--batch")) {
+            System.exit(runBatch(args));
+        }
         // Create LibraryManager instance
         LibraryManager manager = new LibraryManager();
         // Start the application